@@ -0,0 +1,115 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving and searching rounds on databases of growing size. Searches within
+ * {@link SyntheticDatabase#RECENT_WINDOW} are mostly answered from the recent
+ * rounds cache, longer ones always reach the database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class RepositoryBenchmark {
+
+	@Param({"1000", "100000", "1000000", "10000000"})
+	public int rounds;
+
+	@Param({"50"})
+	public int servers;
+
+	private Path database;
+	private RoundRepository repository;
+	private List<Round> unchanged;
+	private long nextRound;
+
+	@Setup(Level.Trial)
+	public void open() throws IOException, SQLException {
+		this.database = SyntheticDatabase.copyOf(this.rounds, this.servers);
+		this.repository = SyntheticDatabase.open(this.database);
+		this.unchanged = new ArrayList<>(this.servers);
+
+		for (int server = 0; server < this.servers; server++) {
+			String id = SyntheticDatabase.serverId(server);
+
+			this.unchanged.add(this.repository.currentRound(id).orElseThrow());
+		}
+
+		this.nextRound = this.rounds / this.servers;
+	}
+
+	@TearDown(Level.Trial)
+	public void close() throws IOException, SQLException {
+		this.repository.close();
+		Files.deleteIfExists(this.database);
+	}
+
+	@Benchmark
+	public List<Round> queryRecent() throws SQLException {
+		return this.repository.queryByTimespam(this.randomServer(), Duration.ofDays(2));
+	}
+
+	@Benchmark
+	public List<Round> queryBeyondRecentWindow() throws SQLException {
+		return this.repository.queryByTimespam(this.randomServer(), Duration.ofDays(14));
+	}
+
+	/**
+	 * A poll where every server changed map.
+	 */
+	@Benchmark
+	public List<Round> saveAnyNewChanged() throws SQLException {
+		List<Round> changed = new ArrayList<>(this.servers);
+		ZonedDateTime now = ZonedDateTime.now();
+		long number = this.nextRound++;
+
+		for (int server = 0; server < this.servers; server++) {
+			changed.add(SyntheticDatabase.round(SyntheticDatabase.serverId(server), number, 64, now));
+		}
+
+		return this.repository.saveAnyNew(changed);
+	}
+
+	/**
+	 * A poll where no server changed map, by far the most common one.
+	 */
+	@Benchmark
+	public List<Round> saveAnyNewUnchanged() throws SQLException {
+		return this.repository.saveAnyNew(this.unchanged);
+	}
+
+	private String randomServer() {
+		return SyntheticDatabase.serverId(ThreadLocalRandom.current().nextInt(this.servers));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.undermon.realityapi.spy.Server;
+import me.undermon.realityapi.spy.Servers;
+
+/**
+ * Parsing a ServerInfo response as the tracker does on every poll. Runs on a
+ * response saved beforehand, for instance with
+ * {@code curl -o serverinfo.json https://servers.realitymod.com/api/ServerInfo},
+ * tracking the first {@code tracked} servers listed on it.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ServerInfoBenchmark {
+
+	@Param({"serverinfo.json"})
+	public String serverInfo;
+
+	@Param({"3"})
+	public int tracked;
+
+	private byte[] response;
+	private String document;
+	private Set<String> trackedIds;
+
+	@Setup(Level.Trial)
+	public void read() throws IOException {
+		Path path = Path.of(this.serverInfo);
+
+		if (!Files.exists(path)) {
+			throw new IOException("Save a ServerInfo response to %s first.".formatted(path.toAbsolutePath()));
+		}
+
+		this.response = Files.readAllBytes(path);
+		this.document = new String(this.response, StandardCharsets.UTF_8);
+		this.trackedIds = Servers.from(this.document).
+			stream().
+			limit(this.tracked).
+			map(Server::identifier).
+			collect(Collectors.toUnmodifiableSet());
+	}
+
+	/**
+	 * Every server on the response, as polls did before filtering.
+	 */
+	@Benchmark
+	public List<Server> parseWholeResponse() {
+		return Servers.from(this.document);
+	}
+
+	/**
+	 * Only the tracked servers, as polls do now.
+	 */
+	@Benchmark
+	public List<Round> parseTrackedServers() throws IOException {
+		String trackedServers = ServerInfoReader.filter(new ByteArrayInputStream(this.response), this.trackedIds::contains);
+
+		return Servers.from(trackedServers).
+			stream().
+			map(Round::from).
+			toList();
+	}
+}
@@ -0,0 +1,117 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import me.undermon.realityapi.spy.Layer;
+import me.undermon.realityapi.spy.Map;
+import me.undermon.realityapi.spy.Mode;
+
+/**
+ * Builds {@code maps.db} files filled with made up rounds, spread evenly over
+ * a number of servers and ending at the moment they are generated. Rounds are
+ * saved through {@link RoundRepository} itself, so the files always have the
+ * schema the bot would create. Generated files are kept in the working
+ * directory and reused by later runs.
+ */
+public final class SyntheticDatabase {
+	public static final Duration ROUND_LENGTH = Duration.ofMinutes(75);
+	public static final Duration RECENT_WINDOW = Duration.ofDays(3);
+	private static final int READ_CONNECTIONS = 4;
+
+	private SyntheticDatabase() {
+		// Do nothing
+	}
+
+	/**
+	 * Identifier of the n-th made up server.
+	 */
+	public static String serverId(int server) {
+		return "synthetic-server-%03d".formatted(server);
+	}
+
+	/**
+	 * A round made up for a server, the n-th it played.
+	 */
+	public static Round round(String server, long number, int players, ZonedDateTime startTime) {
+		Map[] maps = Map.values();
+		Mode[] modes = Mode.values();
+		Layer[] layers = Layer.values();
+
+		return new Round(
+			server,
+			maps[(int) (number % maps.length)],
+			modes[(int) (number / maps.length % modes.length)],
+			layers[(int) (number / maps.length / modes.length % layers.length)],
+			players,
+			startTime
+		);
+	}
+
+	/**
+	 * A private copy of a database with {@code rounds} rounds over
+	 * {@code servers} servers, generating it first if needed.
+	 */
+	public static Path copyOf(int rounds, int servers) throws IOException, SQLException {
+		Path copy = Files.createTempFile("maps-", ".db");
+
+		Files.copy(generated(rounds, servers), copy, StandardCopyOption.REPLACE_EXISTING);
+		copy.toFile().deleteOnExit();
+
+		return copy;
+	}
+
+	public static RoundRepository open(Path database) throws SQLException {
+		return new RoundRepository(
+			SQLiteConnections.open("jdbc:sqlite:" + database, READ_CONNECTIONS),
+			new RecentRoundsCache(RECENT_WINDOW)
+		);
+	}
+
+	private static Path generated(int rounds, int servers) throws IOException, SQLException {
+		Path database = Path.of("maps-%d-%d.db".formatted(rounds, servers));
+
+		if (Files.exists(database)) {
+			return database;
+		}
+
+		Path partial = Path.of(database + ".partial");
+		Files.deleteIfExists(partial);
+
+		Random random = new Random(rounds * 31L + servers);
+		long perServer = Math.max(1, rounds / servers);
+		ZonedDateTime first = ZonedDateTime.now(ZoneOffset.UTC).minus(ROUND_LENGTH.multipliedBy(perServer));
+
+		try (RoundRepository repository = open(partial)) {
+			for (long number = 0; number < perServer; number++) {
+				ZonedDateTime startTime = first.plus(ROUND_LENGTH.multipliedBy(number));
+				List<Round> batch = new ArrayList<>(servers);
+
+				for (int server = 0; server < servers; server++) {
+					batch.add(round(serverId(server), number, random.nextInt(101), startTime.plusSeconds(server)));
+				}
+
+				repository.saveAnyNew(batch);
+			}
+		}
+
+		Files.move(partial, database);
+
+		return database;
+	}
+}
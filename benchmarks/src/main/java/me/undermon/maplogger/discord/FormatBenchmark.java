@@ -0,0 +1,73 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import me.undermon.maplogger.Round;
+import me.undermon.maplogger.SyntheticDatabase;
+import me.undermon.maplogger.configuration.TrackedServer;
+
+/**
+ * Writing the {@code /played} listing of a page of rounds in each of the
+ * languages the bot speaks.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(org.openjdk.jmh.annotations.Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FormatBenchmark {
+	private static final TrackedServer SERVER = new TrackedServer("Synthetic Server", SyntheticDatabase.serverId(0));
+	private static final ZoneId TIMEZONE = ZoneId.of("America/Sao_Paulo");
+
+	@Param({"en", "pt", "es"})
+	public String locale;
+
+	@Param({"15", "200"})
+	public int rounds;
+
+	private MessageCatalog catalog;
+	private List<Round> page;
+
+	@Setup(Level.Trial)
+	public void prepare() {
+		this.catalog = MessageCatalog.of(Locale.forLanguageTag(this.locale));
+		this.page = new ArrayList<>(this.rounds);
+
+		ZonedDateTime first = ZonedDateTime.now(TIMEZONE).minus(SyntheticDatabase.ROUND_LENGTH.multipliedBy(this.rounds));
+
+		for (int number = 0; number < this.rounds; number++) {
+			ZonedDateTime startTime = first.plus(SyntheticDatabase.ROUND_LENGTH.multipliedBy(number));
+
+			this.page.add(SyntheticDatabase.round(SERVER.id(), number, 64, startTime));
+		}
+	}
+
+	@Benchmark
+	public String formatToMessage() {
+		return PlayedCommand.formatToMessage(this.catalog, TIMEZONE, SERVER, this.page);
+	}
+}
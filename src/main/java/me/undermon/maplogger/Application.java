@@ -6,8 +6,11 @@
 
 package me.undermon.maplogger;
 
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
 import org.javacord.api.DiscordApi;
@@ -16,46 +19,226 @@ import org.javacord.api.entity.intent.Intent;
 import org.tinylog.Logger;
 
 import me.undermon.maplogger.configuration.Configuration;
+import me.undermon.maplogger.configuration.LiveConfiguration;
+import me.undermon.maplogger.configuration.Storage;
+import me.undermon.maplogger.discord.CommandExecutor;
+import me.undermon.maplogger.discord.CommandRegistration;
+import me.undermon.maplogger.discord.ExportCommand;
+import me.undermon.maplogger.discord.MapStatsCommand;
 import me.undermon.maplogger.discord.PlayedCommand;
+import me.undermon.maplogger.discord.ServerOption;
+import me.undermon.maplogger.metrics.MetricsServer;
 
 public final class Application {
-	private static final ScheduledExecutorService executor =
-		Executors.newSingleThreadScheduledExecutor(RoundsTracker.threadFactory());
+	private static final String JOURNAL_FILE = "maps.journal";
+	private static final String ROUND_LOG_DIRECTORY = "rounds";
+	private static final String EXPORT_MODE = "export";
+	private static final String CONVERT_MODE = "convert";
+	private static final int EXIT_FAILURE = 1;
+	private static final int EXIT_USAGE = 2;
+	private static final ScheduledThreadPoolExecutor executor = newTrackerExecutor();
+	private static final ScheduledThreadPoolExecutor retentionExecutor = newRetentionExecutor();
 
 	public static void main(String[] args) {
+		if (args.length > 0 && args[0].equals(EXPORT_MODE)) {
+			System.exit(exportRounds(args));
+		}
+
+		if (args.length > 0 && args[0].equals(CONVERT_MODE)) {
+			System.exit(convertToRoundLog());
+		}
+
 		try {
-			Configuration config = Configuration.readFromDisk();
-			RoundRepository roundRepo = RoundRepository.usingSQLite();
-
-			executor.scheduleWithFixedDelay(
-				new RoundsTracker(config, roundRepo),
-				0,
-				config.fetchInterval().getSeconds(),
-				TimeUnit.SECONDS
+			LiveConfiguration liveConfig = LiveConfiguration.readFromDisk();
+			Configuration config = liveConfig.current();
+			RoundStore roundRepo = openStore(config);
+
+			ServerDirectory directory = new ServerDirectory(liveConfig);
+			RoundWriter roundWriter = RoundWriter.start(Path.of(JOURNAL_FILE), roundRepo, directory);
+
+			Runtime.getRuntime().addShutdownHook(new Thread(() -> closeRepository(roundWriter, roundRepo)));
+
+			if (config.metricsPort().isPresent()) {
+				MetricsServer metricsServer = MetricsServer.start(config.metricsPort().getAsInt());
+
+				Runtime.getRuntime().addShutdownHook(new Thread(metricsServer::close));
+				Logger.info("Serving metrics on http://localhost:{}/metrics", config.metricsPort().getAsInt());
+			}
+
+			new PollScheduler(executor, new RoundsTracker(liveConfig, roundWriter, directory), roundRepo, liveConfig).start();
+
+			retentionExecutor.scheduleWithFixedDelay(
+				new RetentionJob(roundRepo, liveConfig),
+				RetentionJob.INITIAL_DELAY.toMinutes(),
+				RetentionJob.PERIOD.toMinutes(),
+				TimeUnit.MINUTES
 			);
 
-			String invite = startDiscordBot(config, roundRepo);
+			String invite = startDiscordBot(liveConfig, roundRepo, directory);
+
+			liveConfig.watch();
 
 			Logger.info("Started sucessfully, you can invite the bot with: {}", invite);
 		} catch (Exception e) {
 			Logger.error(e.toString());
 
 			executor.shutdown();
+			retentionExecutor.shutdown();
+		}
+	}
+
+	/**
+	 * Writes the round history to a file and exits, without starting the bot:
+	 * {@code export <file> [days]}. The file name picks the format, see
+	 * {@link RoundExport#toFile}, and without a number of days every round is
+	 * exported. Returns the exit status.
+	 */
+	private static int exportRounds(String[] args) {
+		if (args.length < 2 || args.length > 3) {
+			Logger.error("Usage: export <file.csv|file.ndjson>[.gz] [days]");
+
+			return EXIT_USAGE;
+		}
+
+		Instant since = Instant.EPOCH;
+
+		if (args.length == 3) {
+			long days;
+
+			try {
+				days = Long.parseLong(args[2]);
+			} catch (NumberFormatException e) {
+				days = 0;
+			}
+
+			if (days < 1 || days > RoundExport.MAX_DAYS) {
+				Logger.error("The days to export must be a number from 1 to {}, got {}.", RoundExport.MAX_DAYS, args[2]);
+
+				return EXIT_USAGE;
+			}
+
+			since = Instant.now().minus(Duration.ofDays(days));
+		}
+
+		try (RoundStore roundRepo = openStore(LiveConfiguration.readFromDisk().current(), Duration.ZERO)) {
+			Path file = Path.of(args[1]);
+			long start = System.nanoTime();
+			long exported = RoundExport.toFile(roundRepo, since, file);
+
+			Logger.info(
+				"Exported {} rounds to {} in {} ms.",
+				exported,
+				file.toAbsolutePath(),
+				Duration.ofNanos(System.nanoTime() - start).toMillis()
+			);
+
+			return 0;
+		} catch (Exception e) {
+			Logger.error(e.toString());
+
+			return EXIT_FAILURE;
+		}
+	}
+
+	/**
+	 * Copies {@code maps.db} to a new round log and exits, without starting the
+	 * bot: {@code convert}. The database is left as it was, set
+	 * {@code storage = log} to use the copy. Returns the exit status.
+	 */
+	private static int convertToRoundLog() {
+		try (RoundRepository source = RoundRepository.usingSQLite(Duration.ZERO)) {
+			long start = System.nanoTime();
+
+			RoundLog.convert(source, Path.of(ROUND_LOG_DIRECTORY)).close();
+
+			Logger.info(
+				"Converted maps.db to {} in {} ms.",
+				Path.of(ROUND_LOG_DIRECTORY).toAbsolutePath(),
+				Duration.ofNanos(System.nanoTime() - start).toMillis()
+			);
+
+			return 0;
+		} catch (Exception e) {
+			Logger.error(e.toString());
+
+			return EXIT_FAILURE;
+		}
+	}
+
+	private static RoundStore openStore(Configuration config) throws SQLException {
+		return openStore(config, Duration.of(config.defaultTimespan(), config.defaulUnit()));
+	}
+
+	/**
+	 * Opens the storage the configuration asks for. The SQLite driver is only
+	 * loaded when rounds are kept on {@code maps.db}.
+	 */
+	private static RoundStore openStore(Configuration config, Duration recentWindow) throws SQLException {
+		if (config.storage() == Storage.LOG) {
+			return RoundLog.open(Path.of(ROUND_LOG_DIRECTORY));
 		}
+
+		return RoundRepository.usingSQLite(recentWindow);
 	}
 
-	private static String startDiscordBot(Configuration configFile, RoundRepository roundRepo) {
+	/**
+	 * The next poll is always pending on the tracker executor, it is dropped on
+	 * shutdown instead of being waited for.
+	 */
+	private static ScheduledThreadPoolExecutor newTrackerExecutor() {
+		var trackerExecutor = new ScheduledThreadPoolExecutor(1, RoundsTracker.threadFactory());
+
+		trackerExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+
+		return trackerExecutor;
+	}
+
+	/**
+	 * Retention runs apart from the tracker so a long vacuum never delays polls,
+	 * a pending run is dropped on shutdown.
+	 */
+	private static ScheduledThreadPoolExecutor newRetentionExecutor() {
+		var jobExecutor = new ScheduledThreadPoolExecutor(1, RetentionJob.threadFactory());
+
+		jobExecutor.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		jobExecutor.setContinueExistingPeriodicTasksAfterShutdownPolicy(false);
+
+		return jobExecutor;
+	}
+
+	private static void closeRepository(RoundWriter roundWriter, RoundStore roundRepo) {
+		executor.shutdown();
+		retentionExecutor.shutdown();
+
+		try {
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+			retentionExecutor.awaitTermination(10, TimeUnit.SECONDS);
+			roundWriter.close();
+			roundRepo.close();
+		} catch (Exception e) {
+			Logger.error(e.toString());
+		}
+	}
+
+	private static String startDiscordBot(LiveConfiguration configFile, RoundStore roundRepo, ServerDirectory directory) {
 		DiscordApi api = new DiscordApiBuilder().
-			setToken(configFile.token()).
+			setToken(configFile.current().token()).
 			setIntents(Intent.GUILDS).
 			login().
 			join();
 
-		PlayedCommand.register(api, configFile);
-		PlayedCommand playedCommand = new PlayedCommand(configFile, roundRepo);
+		CommandRegistration.registerIfChanged(api, configFile.current(), roundRepo);
+		// The defaults are part of the command descriptions
+		configFile.onChange(changed -> CommandRegistration.registerIfChanged(api, changed, roundRepo));
+
+		CommandExecutor commandExecutor = new CommandExecutor();
+		PlayedCommand playedCommand = new PlayedCommand(configFile, roundRepo, directory, commandExecutor);
 
 		api.addSlashCommandCreateListener(playedCommand);
-		api.addAutocompleteCreateListener(playedCommand);
+		api.addButtonClickListener(playedCommand);
+		api.addSlashCommandCreateListener(new MapStatsCommand(roundRepo, directory, commandExecutor));
+		api.addSlashCommandCreateListener(new ExportCommand(roundRepo, commandExecutor));
+		api.addAutocompleteCreateListener(new ServerOption(directory));
 
 		return api.createBotInvite();
 	}
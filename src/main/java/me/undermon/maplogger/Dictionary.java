@@ -0,0 +1,136 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.OptionalInt;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * Small integer codes standing for the names repeated on every round, kept on
+ * a lookup table. A code is given the first time a name is saved and never
+ * changes, so values added to or reordered in the spy library keep decoding
+ * the same. Decoding is a lookup on an array indexed by code.
+ */
+final class Dictionary<T> {
+	private static final String CREATE_SQL = """
+		CREATE TABLE IF NOT EXISTS %s (code INTEGER PRIMARY KEY, name TEXT NOT NULL UNIQUE);
+		""";
+
+	private static final String LOAD_SQL = "SELECT code, name FROM %s;";
+
+	private static final String ADD_SQL = """
+		INSERT INTO %s (name) VALUES (?)
+		ON CONFLICT (name) DO UPDATE SET name = excluded.name
+		RETURNING code;
+		""";
+
+	private static final String ADD_ALL_SQL = "INSERT OR IGNORE INTO %s (name) SELECT DISTINCT %s FROM %s;";
+
+	private final String table;
+	private final Function<String, T> parser;
+	private final T unknown;
+	private final Map<String, Integer> codes = new ConcurrentHashMap<>();
+	private volatile Object[] values = new Object[0];
+
+	Dictionary(String table, Function<String, T> parser, T unknown) {
+		this.table = table;
+		this.parser = parser;
+		this.unknown = unknown;
+	}
+
+	public String table() {
+		return this.table;
+	}
+
+	/**
+	 * Creates the lookup table if missing and reads every code on it.
+	 */
+	public synchronized void load(Connection connection) throws SQLException {
+		try (var statement = connection.createStatement()) {
+			statement.execute(CREATE_SQL.formatted(this.table));
+
+			try (ResultSet results = statement.executeQuery(LOAD_SQL.formatted(this.table))) {
+				while (results.next()) {
+					this.publish(results.getInt("code"), results.getString("name"));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Gives a code to every name on {@code column} of {@code source} that has
+	 * none. Codes given this way are only known after {@link #load} runs again.
+	 */
+	public void addAll(Connection connection, String column, String source) throws SQLException {
+		try (var statement = connection.createStatement()) {
+			statement.execute(ADD_ALL_SQL.formatted(this.table, column, source));
+		}
+	}
+
+	/**
+	 * The code of a name, given on the spot if it has none. A new code is
+	 * committed right away, so it must not be asked for inside a transaction.
+	 */
+	public int encode(SQLiteConnections.Lease writer, String name) throws SQLException {
+		Integer code = this.codes.get(name);
+
+		if (code != null) {
+			return code;
+		}
+
+		synchronized (this) {
+			var statement = writer.statement(ADD_SQL.formatted(this.table));
+
+			statement.setString(1, name);
+
+			try (ResultSet result = statement.executeQuery()) {
+				result.next();
+				code = result.getInt("code");
+			}
+
+			this.publish(code, name);
+
+			return code;
+		}
+	}
+
+	/**
+	 * The code of a name, empty if it was never saved.
+	 */
+	public OptionalInt code(String name) {
+		Integer code = this.codes.get(name);
+
+		return code == null ? OptionalInt.empty() : OptionalInt.of(code);
+	}
+
+	@SuppressWarnings("unchecked")
+	public T decode(int code) {
+		Object[] decoded = this.values;
+
+		return code >= 0 && code < decoded.length && decoded[code] != null ? (T) decoded[code] : this.unknown;
+	}
+
+	private void publish(int code, String name) {
+		Object[] decoded = this.values;
+
+		if (code >= decoded.length) {
+			decoded = Arrays.copyOf(decoded, Math.max(code + 1, decoded.length * 2));
+		} else {
+			decoded = decoded.clone();
+		}
+
+		decoded[code] = this.parser.apply(name);
+		this.values = decoded;
+		this.codes.put(name, code);
+	}
+}
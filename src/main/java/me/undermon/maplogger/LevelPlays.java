@@ -0,0 +1,17 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import me.undermon.realityapi.spy.Layer;
+import me.undermon.realityapi.spy.Map;
+import me.undermon.realityapi.spy.Mode;
+
+/**
+ * How many rounds a server played on a level, and the sum of the players each
+ * of them started with.
+ */
+public record LevelPlays(Map map, Mode mode, Layer layer, int rounds, long players) {}
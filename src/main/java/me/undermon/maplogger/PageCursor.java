@@ -0,0 +1,27 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+/**
+ * Position of a round in the history, ordered by start time and then by id so
+ * that pages can be continued from it with a keyset search.
+ */
+public record PageCursor(long startedAt, long id) implements Comparable<PageCursor> {
+
+	/**
+	 * Sits after every recorded round, searching before it yields the latest page.
+	 */
+	public static final PageCursor LATEST = new PageCursor(Long.MAX_VALUE, Long.MAX_VALUE);
+
+	@Override
+	public int compareTo(PageCursor other) {
+		int byStart = Long.compare(this.startedAt, other.startedAt);
+
+		return (byStart != 0) ? byStart : Long.compare(this.id, other.id);
+	}
+
+}
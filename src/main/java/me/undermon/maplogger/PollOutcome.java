@@ -0,0 +1,24 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.util.List;
+
+/**
+ * What a poll of ServerInfo found: whether it failed and, if not, the round
+ * each tracked server was playing.
+ */
+record PollOutcome(boolean failed, List<Round> rounds) {
+
+	public static PollOutcome failure() {
+		return new PollOutcome(true, List.of());
+	}
+
+	public boolean anyPopulated() {
+		return this.rounds.stream().anyMatch(round -> round.players() > 0);
+	}
+}
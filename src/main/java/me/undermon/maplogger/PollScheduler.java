@@ -0,0 +1,162 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.tinylog.Logger;
+
+import me.undermon.maplogger.configuration.Configuration;
+import me.undermon.maplogger.configuration.LiveConfiguration;
+import me.undermon.maplogger.metrics.Metrics;
+
+/**
+ * Polls ServerInfo over and over, choosing after each poll how long to wait
+ * for the next one. While a tracked server has players polls come every fetch
+ * interval, sooner once its round nears the length rounds there usually last.
+ * While every tracked server is empty or the API keeps failing the wait doubles
+ * on each poll. Waits never leave the configured minimum and maximum, as the
+ * configuration is when each wait is chosen.
+ */
+final class PollScheduler implements Runnable {
+	private static final double ENDING_FRACTION = 0.8;
+	private static final int MAX_BACKOFF_EXPONENT = 16;
+	private static final Duration ROUND_LENGTH_TIME_TO_LIVE = Duration.ofHours(1);
+
+	private final ScheduledExecutorService executor;
+	private final RoundsTracker tracker;
+	private final RoundStore roundRepo;
+	private final LiveConfiguration config;
+	private final Map<String, RoundLength> roundLengths = new HashMap<>();
+
+	private int idlePolls;
+	private volatile Duration scheduledDelay = Duration.ZERO;
+
+	private record RoundLength(Optional<Duration> length, Instant computedAt) {}
+
+	public PollScheduler(ScheduledExecutorService executor, RoundsTracker tracker, RoundStore roundRepo,
+			LiveConfiguration config) {
+
+		this.executor = executor;
+		this.tracker = tracker;
+		this.roundRepo = roundRepo;
+		this.config = config;
+
+		Metrics.gauge(
+			"next_poll_delay_seconds",
+			"Wait chosen before the next poll of ServerInfo.",
+			() -> this.scheduledDelay.toSeconds()
+		);
+	}
+
+	public void start() {
+		this.executor.execute(this);
+	}
+
+	@Override
+	public void run() {
+		Duration delay = this.config.current().maxFetchInterval();
+
+		try {
+			delay = this.nextDelay(this.tracker.poll());
+		} catch (ThreadDeath e) {
+			throw e;
+		} catch (Exception e) {
+			Logger.error(e);
+		} finally {
+			this.schedule(delay);
+		}
+	}
+
+	private void schedule(Duration delay) {
+		this.scheduledDelay = delay;
+		Logger.debug("Next poll of ServerInfo in {} seconds.", delay.toSeconds());
+
+		try {
+			this.executor.schedule(this, delay.toMillis(), TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			Logger.debug("Polling stopped, the executor is shut down.");
+		}
+	}
+
+	private Duration nextDelay(PollOutcome outcome) throws SQLException {
+		Configuration config = this.config.current();
+
+		if (outcome.failed() || !outcome.anyPopulated()) {
+			this.idlePolls = Math.min(this.idlePolls + 1, MAX_BACKOFF_EXPONENT);
+
+			return clamp(config, config.fetchInterval().multipliedBy(1L << this.idlePolls));
+		}
+
+		this.idlePolls = 0;
+
+		Duration delay = config.fetchInterval();
+
+		for (Round round : outcome.rounds()) {
+			// Only the configured servers steer polling, tracking all would keep it at the minimum
+			if (round.players() > 0 && config.serverById(round.server()).isPresent()) {
+				Optional<Duration> untilEnding = this.untilLikelyEnding(round.server());
+
+				if (untilEnding.isPresent() && untilEnding.get().compareTo(delay) < 0) {
+					delay = untilEnding.get();
+				}
+			}
+		}
+
+		return clamp(config, delay);
+	}
+
+	/**
+	 * Time left until the current round of a server has been going on for most
+	 * of the length its rounds usually last, zero if it already has.
+	 */
+	private Optional<Duration> untilLikelyEnding(String server) throws SQLException {
+		Optional<Round> current = this.roundRepo.currentRound(server);
+		Optional<Duration> length = this.typicalRoundLength(server);
+
+		if (current.isEmpty() || length.isEmpty()) {
+			return Optional.empty();
+		}
+
+		Duration elapsed = Duration.between(current.get().startTime().toInstant(), Instant.now());
+		Duration ending = Duration.ofMillis((long) (length.get().toMillis() * ENDING_FRACTION));
+		Duration left = ending.minus(elapsed);
+
+		return Optional.of(left.isNegative() ? Duration.ZERO : left);
+	}
+
+	private Optional<Duration> typicalRoundLength(String server) throws SQLException {
+		RoundLength cached = this.roundLengths.get(server);
+
+		if (cached == null || cached.computedAt().plus(ROUND_LENGTH_TIME_TO_LIVE).isBefore(Instant.now())) {
+			cached = new RoundLength(this.roundRepo.typicalRoundLength(server), Instant.now());
+			this.roundLengths.put(server, cached);
+		}
+
+		return cached.length();
+	}
+
+	private static Duration clamp(Configuration config, Duration delay) {
+		if (delay.compareTo(config.minFetchInterval()) < 0) {
+			return config.minFetchInterval();
+		}
+
+		if (delay.compareTo(config.maxFetchInterval()) > 0) {
+			return config.maxFetchInterval();
+		}
+
+		return delay;
+	}
+}
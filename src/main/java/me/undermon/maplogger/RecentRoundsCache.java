@@ -0,0 +1,139 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Holds the rounds each server played within a recent window, oldest first,
+ * so repeated searches inside that window are answered without the database.
+ * Entries expire after a while and at most a fixed number of servers and
+ * rounds per server are kept.
+ */
+final class RecentRoundsCache {
+	private static final Duration TIME_TO_LIVE = Duration.ofHours(1);
+	private static final int MAX_SERVERS = 64;
+	private static final int MAX_ROUNDS_PER_SERVER = 2000;
+
+	private final Duration window;
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+			return this.size() > MAX_SERVERS;
+		}
+	};
+
+	private record Entry(Instant loadedAt, Instant coveredSince, List<RecordedRound> rounds) {}
+
+	public RecentRoundsCache(Duration window) {
+		this.window = window;
+	}
+
+	/**
+	 * How far back a search may reach and still be kept in the cache.
+	 */
+	public Duration window() {
+		return this.window;
+	}
+
+	/**
+	 * The rounds of a server started after {@code since}, if they are cached.
+	 */
+	public synchronized Optional<List<RecordedRound>> get(String server, Instant since) {
+		Entry entry = this.entries.get(server);
+
+		if (entry == null || since.isBefore(entry.coveredSince())) {
+			return Optional.empty();
+		}
+
+		if (entry.loadedAt().plus(TIME_TO_LIVE).isBefore(Instant.now())) {
+			this.entries.remove(server);
+
+			return Optional.empty();
+		}
+
+		return Optional.of(startedAfter(entry.rounds(), since));
+	}
+
+	/**
+	 * Caches every round a server played since {@code coveredSince}, oldest first.
+	 */
+	public synchronized void put(String server, Instant coveredSince, List<RecordedRound> rounds) {
+		if (rounds.size() <= MAX_ROUNDS_PER_SERVER) {
+			this.entries.put(server, new Entry(Instant.now(), coveredSince, List.copyOf(rounds)));
+		}
+	}
+
+	/**
+	 * Adds a round that was just recorded to its server's entry, if it has one
+	 * and the round started after every round already in it.
+	 */
+	public synchronized void append(RecordedRound recorded) {
+		String server = recorded.round().server();
+		Entry entry = this.entries.get(server);
+
+		if (entry == null) {
+			return;
+		}
+
+		List<RecordedRound> cached = entry.rounds();
+
+		if (!cached.isEmpty() && recorded.cursor().compareTo(cached.get(cached.size() - 1).cursor()) <= 0) {
+			return;
+		}
+
+		if (cached.size() >= MAX_ROUNDS_PER_SERVER) {
+			this.entries.remove(server);
+
+			return;
+		}
+
+		List<RecordedRound> rounds = new ArrayList<>(cached.size() + 1);
+		rounds.addAll(cached);
+		rounds.add(recorded);
+
+		this.entries.put(server, new Entry(entry.loadedAt(), entry.coveredSince(), List.copyOf(rounds)));
+	}
+
+	/**
+	 * Forgets every entry, after rounds were deleted from the database.
+	 */
+	public synchronized void clear() {
+		this.entries.clear();
+	}
+
+	/**
+	 * Index of the first round positioned after {@code cursor}, in rounds sorted
+	 * by their cursors.
+	 */
+	public static int indexAfter(List<RecordedRound> rounds, PageCursor cursor) {
+		int low = 0;
+		int high = rounds.size();
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (rounds.get(middle).cursor().compareTo(cursor) > 0) {
+				high = middle;
+			} else {
+				low = middle + 1;
+			}
+		}
+
+		return low;
+	}
+
+	private static List<RecordedRound> startedAfter(List<RecordedRound> rounds, Instant since) {
+		return rounds.subList(indexAfter(rounds, new PageCursor(since.toEpochMilli(), Long.MAX_VALUE)), rounds.size());
+	}
+}
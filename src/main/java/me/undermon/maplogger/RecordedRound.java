@@ -0,0 +1,18 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+/**
+ * A round together with the id of its row in the history.
+ */
+record RecordedRound(long id, Round round) {
+
+	PageCursor cursor() {
+		return new PageCursor(this.round.startTime().toInstant().toEpochMilli(), this.id);
+	}
+
+}
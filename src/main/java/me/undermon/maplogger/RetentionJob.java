@@ -0,0 +1,75 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import org.tinylog.Logger;
+
+import me.undermon.maplogger.configuration.LiveConfiguration;
+
+/**
+ * Deletes the rounds that fell out of the retention and gives their space back
+ * to the file system. What was played on those rounds stays on the daily
+ * rollup, so {@code /mapstats} keeps seeing it. Does nothing while the
+ * configuration sets no retention.
+ */
+final class RetentionJob implements Runnable {
+	public static final Duration PERIOD = Duration.ofHours(6);
+	public static final Duration INITIAL_DELAY = Duration.ofMinutes(5);
+
+	private final RoundStore roundRepo;
+	private final LiveConfiguration config;
+
+	public RetentionJob(RoundStore roundRepo, LiveConfiguration config) {
+		this.roundRepo = roundRepo;
+		this.config = config;
+	}
+
+	@Override
+	public void run() {
+		Optional<Duration> retention = this.config.current().retention();
+
+		if (retention.isEmpty()) {
+			return;
+		}
+
+		try {
+			long start = System.nanoTime();
+			long deleted = this.roundRepo.deleteEndedBefore(Instant.now().minus(retention.get()));
+
+			if (deleted > 0) {
+				this.roundRepo.reclaimSpace();
+			}
+
+			Logger.info(
+				"Deleted {} rounds older than {} days in {} ms.",
+				deleted,
+				retention.get().toDays(),
+				Duration.ofNanos(System.nanoTime() - start).toMillis()
+			);
+		} catch (ThreadDeath e) {
+			throw e;
+		} catch (Exception e) {
+			Logger.error(e);
+		}
+	}
+
+	public static ThreadFactory threadFactory() {
+		return runnable -> {
+			Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+
+			thread.setName("RetentionJob");
+
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,229 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.format.DateTimeFormatter;
+import java.util.Locale;
+import java.util.Optional;
+import java.util.zip.GZIPOutputStream;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.io.SerializedString;
+
+/**
+ * Writes the round history out as CSV or newline delimited JSON, optionally
+ * gzipped. Rounds are written as they are read from the database, so an
+ * export of any size takes the same memory.
+ */
+public final class RoundExport {
+	/**
+	 * The most days back an export can reach, older than any round.
+	 */
+	public static final long MAX_DAYS = 36_500;
+
+	private static final int BUFFER_BYTES = 64 * 1024;
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+	private static final String GZIP_EXTENSION = ".gz";
+
+	private static final String ID = "id";
+	private static final String SERVER = "server";
+	private static final String MAP = "map";
+	private static final String MODE = "mode";
+	private static final String LAYER = "layer";
+	private static final String PLAYERS = "players";
+	private static final String STARTED_AT = "started_at";
+	private static final String ENDED_AT = "ended_at";
+	private static final String PEAK_PLAYERS = "peak_players";
+	private static final String AVERAGE_PLAYERS = "average_players";
+
+	private static final String CSV_HEADER = String.join(",",
+		ID, SERVER, MAP, MODE, LAYER, PLAYERS, STARTED_AT, ENDED_AT, PEAK_PLAYERS, AVERAGE_PLAYERS
+	) + "\n";
+
+	public enum Format {
+		CSV(".csv"),
+		NDJSON(".ndjson");
+
+		private final String extension;
+
+		Format(String extension) {
+			this.extension = extension;
+		}
+
+		public String extension() {
+			return this.extension;
+		}
+
+		/**
+		 * The format a file name asks for, NDJSON for {@code .ndjson} and
+		 * {@code .jsonl} files and CSV for anything else.
+		 */
+		public static Format ofFileName(String fileName) {
+			String name = fileName.toLowerCase(Locale.ROOT);
+
+			if (name.endsWith(GZIP_EXTENSION)) {
+				name = name.substring(0, name.length() - GZIP_EXTENSION.length());
+			}
+
+			return name.endsWith(NDJSON.extension) || name.endsWith(".jsonl") ? NDJSON : CSV;
+		}
+	}
+
+	/**
+	 * A round as exported: where and what was played, when it started and ended
+	 * and how many players it had over how many polls.
+	 */
+	public record Row(long id, Round round, Optional<Instant> endedAt, int peakPlayers, long playersSum, int samples) {
+
+		public double averagePlayers() {
+			return (double) this.playersSum / Math.max(1, this.samples);
+		}
+	}
+
+	/**
+	 * Takes the rounds of an export one at a time.
+	 */
+	@FunctionalInterface
+	public interface Sink {
+		void accept(Row row) throws IOException;
+	}
+
+	private RoundExport() {
+		// Do nothing
+	}
+
+	/**
+	 * Writes every round started since {@code since} to {@code file}, choosing
+	 * the format from its name and gzipping it when it ends in {@code .gz}.
+	 * Returns how many rounds were written.
+	 */
+	public static long toFile(RoundStore roundRepo, Instant since, Path file) throws SQLException, IOException {
+		String fileName = file.getFileName().toString();
+
+		return write(
+			roundRepo,
+			since,
+			Format.ofFileName(fileName),
+			fileName.toLowerCase(Locale.ROOT).endsWith(GZIP_EXTENSION),
+			Files.newOutputStream(file)
+		);
+	}
+
+	/**
+	 * Writes every round started since {@code since} to {@code out}, closing it
+	 * when done. Returns how many rounds were written.
+	 */
+	public static long write(RoundStore roundRepo, Instant since, Format format, boolean gzip, OutputStream out)
+			throws SQLException, IOException {
+
+		try (OutputStream stream = gzip ? new GZIPOutputStream(out, BUFFER_BYTES) : new BufferedOutputStream(out, BUFFER_BYTES)) {
+			if (format == Format.NDJSON) {
+				return writeNdjson(roundRepo, since, stream);
+			}
+
+			return writeCsv(roundRepo, since, stream);
+		}
+	}
+
+	private static long writeCsv(RoundStore roundRepo, Instant since, OutputStream stream)
+			throws SQLException, IOException {
+
+		Writer writer = new OutputStreamWriter(stream, StandardCharsets.UTF_8);
+
+		writer.write(CSV_HEADER);
+
+		long written = roundRepo.exportSince(since, row -> {
+			Round round = row.round();
+
+			writer.append(Long.toString(row.id())).append(',');
+			writeCsvField(writer, round.server());
+			writer.append(',');
+			writeCsvField(writer, round.map().toString());
+			writer.append(',');
+			writeCsvField(writer, round.mode().toString());
+			writer.append(',');
+			writeCsvField(writer, round.layer().toString());
+			writer.append(',').append(Integer.toString(round.players())).append(',');
+			writer.append(DATE_TIME_FORMATTER.format(round.startTime())).append(',');
+			writer.append(endedAt(row).orElse("")).append(',');
+			writer.append(Integer.toString(row.peakPlayers())).append(',');
+			writer.append(Double.toString(rounded(row.averagePlayers()))).append('\n');
+		});
+
+		writer.flush();
+
+		return written;
+	}
+
+	private static void writeCsvField(Writer writer, String value) throws IOException {
+		if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+			writer.write(value);
+
+			return;
+		}
+
+		writer.append('"').append(value.replace("\"", "\"\"")).append('"');
+	}
+
+	private static long writeNdjson(RoundStore roundRepo, Instant since, OutputStream stream)
+			throws SQLException, IOException {
+
+		JsonGenerator generator = JSON_FACTORY.createGenerator(stream, JsonEncoding.UTF8);
+
+		generator.setRootValueSeparator(new SerializedString("\n"));
+		generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+		long written = roundRepo.exportSince(since, row -> {
+			Round round = row.round();
+
+			generator.writeStartObject();
+			generator.writeNumberField(ID, row.id());
+			generator.writeStringField(SERVER, round.server());
+			generator.writeStringField(MAP, round.map().toString());
+			generator.writeStringField(MODE, round.mode().toString());
+			generator.writeStringField(LAYER, round.layer().toString());
+			generator.writeNumberField(PLAYERS, round.players());
+			generator.writeStringField(STARTED_AT, DATE_TIME_FORMATTER.format(round.startTime()));
+			generator.writeStringField(ENDED_AT, endedAt(row).orElse(null));
+			generator.writeNumberField(PEAK_PLAYERS, row.peakPlayers());
+			generator.writeNumberField(AVERAGE_PLAYERS, rounded(row.averagePlayers()));
+			generator.writeEndObject();
+		});
+
+		if (written > 0) {
+			generator.writeRaw('\n');
+		}
+
+		generator.close();
+
+		return written;
+	}
+
+	/**
+	 * When a round ended, at the offset it started in.
+	 */
+	private static Optional<String> endedAt(Row row) {
+		return row.endedAt().map(ended -> DATE_TIME_FORMATTER.format(ended.atZone(row.round().startTime().getZone())));
+	}
+
+	private static double rounded(double value) {
+		return Math.round(value * 100) / 100.0;
+	}
+}
@@ -0,0 +1,217 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.tinylog.Logger;
+
+import me.undermon.realityapi.spy.Layer;
+import me.undermon.realityapi.spy.Map;
+import me.undermon.realityapi.spy.Mode;
+
+/**
+ * Append-only file keeping the polls handed to {@link RoundWriter} until they
+ * are saved, so a restart can save them again. Every record starts with its
+ * length and a CRC32 of its contents: a record torn by a crash is dropped on
+ * open together with anything after it. Records are not forced to disk as
+ * they are written, so journaling never waits on the disk: {@link #force()}
+ * syncs everything written so far at once, and a poll survives losing power
+ * only after it.
+ */
+final class RoundJournal implements AutoCloseable {
+	private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
+	private static final int HEADER_BYTES = Integer.BYTES + Long.BYTES;
+	private static final byte POLL = 1;
+	private static final byte SAVED = 2;
+
+	private final FileChannel channel;
+	private final List<Entry> pending;
+	private long lastSequence;
+
+	/**
+	 * The rounds seen on one poll, numbered in the order they were journaled.
+	 */
+	record Entry(long sequence, List<Round> rounds) {}
+
+	private RoundJournal(FileChannel channel) throws IOException {
+		this.channel = channel;
+		this.pending = this.read();
+	}
+
+	public static RoundJournal open(Path path) throws IOException {
+		return new RoundJournal(FileChannel.open(
+			path,
+			StandardOpenOption.CREATE,
+			StandardOpenOption.READ,
+			StandardOpenOption.WRITE
+		));
+	}
+
+	/**
+	 * The polls that were journaled but not marked as saved when the file was
+	 * opened, oldest first.
+	 */
+	public List<Entry> pending() {
+		return this.pending;
+	}
+
+	public synchronized Entry append(List<Round> rounds) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64 + rounds.size() * 96);
+		DataOutputStream record = new DataOutputStream(bytes);
+		long sequence = this.lastSequence + 1;
+
+		record.writeByte(POLL);
+		record.writeLong(sequence);
+		record.writeInt(rounds.size());
+
+		for (Round round : rounds) {
+			record.writeUTF(round.server());
+			record.writeUTF(round.map().toString());
+			record.writeUTF(round.mode().toString());
+			record.writeUTF(round.layer().toString());
+			record.writeInt(round.players());
+			record.writeUTF(round.startTime().format(DATE_TIME_FORMATTER));
+		}
+
+		this.write(bytes.toByteArray());
+		this.lastSequence = sequence;
+
+		return new Entry(sequence, rounds);
+	}
+
+	/**
+	 * Records that every poll up to {@code sequence} is saved.
+	 */
+	public synchronized void markSaved(long sequence) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(Byte.BYTES + Long.BYTES);
+		DataOutputStream record = new DataOutputStream(bytes);
+
+		record.writeByte(SAVED);
+		record.writeLong(sequence);
+
+		this.write(bytes.toByteArray());
+	}
+
+	/**
+	 * Forces every record written so far to disk. Not synchronized, so records
+	 * can still be appended while it waits.
+	 */
+	public void force() throws IOException {
+		this.channel.force(false);
+	}
+
+	/**
+	 * Empties the file, once every poll on it is saved.
+	 */
+	public synchronized void truncate() throws IOException {
+		this.channel.truncate(0);
+	}
+
+	private void write(byte[] contents) throws IOException {
+		CRC32 crc = new CRC32();
+		crc.update(contents);
+
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_BYTES + contents.length).
+			putInt(contents.length).
+			putLong(crc.getValue()).
+			put(contents).
+			flip();
+
+		long position = this.channel.size();
+
+		while (buffer.hasRemaining()) {
+			position += this.channel.write(buffer, position);
+		}
+	}
+
+	private List<Entry> read() throws IOException {
+		List<Entry> entries = new ArrayList<>();
+		ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+		long position = 0;
+		long size = this.channel.size();
+
+		while (position + HEADER_BYTES <= size) {
+			header.clear();
+			this.channel.read(header, position);
+			header.flip();
+
+			int length = header.getInt();
+			long checksum = header.getLong();
+
+			if (length <= 0 || position + HEADER_BYTES + length > size) {
+				break;
+			}
+
+			ByteBuffer contents = ByteBuffer.allocate(length);
+			this.channel.read(contents, position + HEADER_BYTES);
+
+			CRC32 crc = new CRC32();
+			crc.update(contents.array());
+
+			if (crc.getValue() != checksum) {
+				break;
+			}
+
+			DataInputStream record = new DataInputStream(new ByteArrayInputStream(contents.array()));
+			byte type = record.readByte();
+			long sequence = record.readLong();
+
+			if (type == POLL) {
+				entries.add(new Entry(sequence, readRounds(record)));
+				this.lastSequence = sequence;
+			} else {
+				entries.removeIf(entry -> entry.sequence() <= sequence);
+			}
+
+			position += HEADER_BYTES + length;
+		}
+
+		if (position < size) {
+			Logger.warn("Dropped {} bytes at the end of the round journal that were not completely written.", size - position);
+			this.channel.truncate(position);
+		}
+
+		return List.copyOf(entries);
+	}
+
+	private static List<Round> readRounds(DataInputStream record) throws IOException {
+		int count = record.readInt();
+		List<Round> rounds = new ArrayList<>(count);
+
+		for (int i = 0; i < count; i++) {
+			rounds.add(new Round(
+				record.readUTF(),
+				Map.fromString(record.readUTF()),
+				Mode.fromString(record.readUTF()),
+				Layer.fromString(record.readUTF()),
+				record.readInt(),
+				ZonedDateTime.parse(record.readUTF(), DATE_TIME_FORMATTER)
+			));
+		}
+
+		return rounds;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.channel.close();
+	}
+}
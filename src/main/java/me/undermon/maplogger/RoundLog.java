@@ -0,0 +1,1066 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Optional;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.tinylog.Logger;
+
+import me.undermon.maplogger.metrics.Counter;
+import me.undermon.maplogger.metrics.Histogram;
+import me.undermon.maplogger.metrics.Metrics;
+import me.undermon.realityapi.spy.Layer;
+import me.undermon.realityapi.spy.Map;
+import me.undermon.realityapi.spy.Mode;
+
+/**
+ * Keeps rounds on an append-only file of fixed-width records, mapped into
+ * memory, in the order they were saved. Every block of records has the latest
+ * start time seen up to its end on a sparse index, so searches by time start
+ * at the first block that can match, found with a binary search. Names are
+ * kept as codes like on SQLite, on {@code names.txt}.
+ * <p>
+ * Deleting rounds rewrites the kept ones to the next generation of the file,
+ * {@code rounds-<generation>.log}, which {@code rollup.bin} names together
+ * with the plays of every deleted round: a crash halfway leaves the previous
+ * generation in use.
+ */
+public final class RoundLog implements RoundStore {
+	private static final int MAGIC = 0x524C4F47;
+	private static final int VERSION = 1;
+	private static final int HEADER_BYTES = 64;
+	private static final int RECORD_BYTES = 64;
+	private static final int INITIAL_CAPACITY = 4096;
+	// A single mapping can't reach 2 GiB
+	private static final int MAX_CAPACITY = (Integer.MAX_VALUE - HEADER_BYTES) / RECORD_BYTES;
+	private static final int BLOCK_RECORDS = 128;
+	private static final int EXPORT_CHUNK = 1000;
+	private static final int ROUND_LENGTH_SAMPLES = 50;
+	private static final long OPEN = -1;
+
+	private static final int COUNT = 8;
+	private static final int NEXT_ID = 16;
+
+	private static final int ID = 0;
+	private static final int STARTED_AT = 8;
+	private static final int ENDED_AT = 16;
+	private static final int PLAYERS_SUM = 24;
+	private static final int SERVER = 32;
+	private static final int MAP = 36;
+	private static final int MODE = 40;
+	private static final int LAYER = 44;
+	private static final int PLAYERS = 48;
+	private static final int PEAK_PLAYERS = 52;
+	private static final int SAMPLES = 56;
+	private static final int OFFSET_SECONDS = 60;
+
+	private static final String NAMES_FILE = "names.txt";
+	private static final String ROLLUP_FILE = "rollup.bin";
+	private static final String SETTINGS_FILE = "settings.properties";
+	private static final String TEMPORARY = ".tmp";
+	private static final Pattern GENERATION = Pattern.compile("rounds-(\\d+)\\.log");
+
+	private static final Histogram QUERY_DURATION = Metrics.histogram(
+		"db_query_duration_seconds", "Time taken by database reads, by query.", Histogram.SECONDS, "query"
+	);
+	private static final Histogram INSERT_DURATION = Metrics.histogram(
+		"db_insert_duration_seconds", "Time taken by transactions saving rounds.", Histogram.SECONDS
+	);
+	private static final Counter ROUNDS_DELETED = Metrics.counter(
+		"rounds_deleted", "Rounds deleted for being older than the retention."
+	);
+
+	private final Path directory;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+	private final Codes<String> servers = new Codes<>("server", name -> name, "");
+	private final Codes<Map> maps = new Codes<>("map", Map::fromString, Map.UNKNOWN);
+	private final Codes<Mode> modes = new Codes<>("mode", Mode::fromString, Mode.UNKNOWN);
+	private final Codes<Layer> layers = new Codes<>("layer", Layer::fromString, Layer.UNKNOWN);
+	private final java.util.Map<String, Latest> latestByServer = new ConcurrentHashMap<>();
+	private final java.util.Map<RollupKey, long[]> rollup = new HashMap<>();
+	private final java.util.Map<RollupKey, long[]> deletedPlays = new HashMap<>();
+	private final Properties settings = new Properties();
+
+	private long generation;
+	private FileChannel channel;
+	private MappedByteBuffer records;
+	private int capacity;
+	private int count;
+	private long nextId;
+	private long[] blockLatestStart = new long[16];
+
+	/**
+	 * The last round saved for a server and where it is on the file.
+	 */
+	private record Latest(int index, RecordedRound recorded) {}
+
+	private record RollupKey(int server, long day, int map, int mode, int layer) {}
+
+	private RoundLog(Path directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Opens the round log kept on {@code directory}, creating it if missing.
+	 */
+	public static RoundLog open(Path directory) throws SQLException {
+		RoundLog log = new RoundLog(directory);
+
+		try {
+			Files.createDirectories(directory);
+			log.load();
+		} catch (IOException e) {
+			log.closeQuietly();
+
+			throw new SQLException("Could not open the round log at %s.".formatted(directory), e);
+		}
+
+		return log;
+	}
+
+	/**
+	 * Copies every round, the daily rollup and the settings kept on SQLite to a
+	 * new round log on {@code directory}, which must not have one yet.
+	 */
+	public static RoundLog convert(RoundRepository source, Path directory) throws SQLException, IOException {
+		if (Files.exists(directory.resolve(NAMES_FILE))) {
+			throw new IOException("There is a round log at %s already.".formatted(directory));
+		}
+
+		RoundLog log = open(directory);
+
+		try {
+			log.lock.writeLock().lock();
+
+			try {
+				source.exportSince(Instant.EPOCH, log::append);
+
+				// SQLite counts every round on its rollup, only the deleted ones go to the file
+				java.util.Map<RollupKey, long[]> live = new HashMap<>(log.rollup);
+
+				log.rollup.clear();
+				source.exportRollup(daily -> {
+					try {
+						RollupKey key = log.rollupKey(daily.server(), daily.day(), daily.plays());
+						long[] kept = live.getOrDefault(key, new long[2]);
+
+						log.rollup.put(key, new long[] {daily.plays().rounds(), daily.plays().players()});
+
+						if (daily.plays().rounds() > kept[0]) {
+							log.deletedPlays.put(key, new long[] {
+								daily.plays().rounds() - kept[0], daily.plays().players() - kept[1]
+							});
+						}
+					} catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				});
+
+				log.settings.putAll(source.settings());
+				log.writeSettings();
+				log.writeRollup(log.generation, log.deletedPlays);
+				log.sync();
+			} finally {
+				log.lock.writeLock().unlock();
+			}
+		} catch (SQLException | IOException | RuntimeException e) {
+			log.close();
+
+			throw e;
+		}
+
+		return log;
+	}
+
+	private void load() throws IOException {
+		this.loadNames();
+		this.generation = this.loadRollup();
+		this.deleteStaleGenerations();
+		this.map(this.logFile(this.generation), INITIAL_CAPACITY);
+		this.loadSettings();
+
+		for (int index = 0; index < this.count; index++) {
+			this.indexStart(index, this.records.getLong(offset(index) + STARTED_AT));
+			this.addToRollup(this.rollup, index);
+			this.latestByServer.put(this.servers.decode(this.records.getInt(offset(index) + SERVER)), new Latest(index, this.read(index)));
+		}
+
+		Logger.info("Opened the round log at {} with {} rounds.", this.directory, this.count);
+	}
+
+	private Path logFile(long logGeneration) {
+		return this.directory.resolve("rounds-%d.log".formatted(logGeneration));
+	}
+
+	/**
+	 * Maps a generation of the log, with room for at least {@code minCapacity}
+	 * rounds.
+	 */
+	private void map(Path file, int minCapacity) throws IOException {
+		FileChannel opened = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = opened.size();
+		int mappedCapacity = (int) Math.min(MAX_CAPACITY, Math.max(minCapacity, (size - HEADER_BYTES) / RECORD_BYTES));
+		MappedByteBuffer mapped;
+
+		try {
+			mapped = opened.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) mappedCapacity * RECORD_BYTES);
+		} catch (IOException | RuntimeException e) {
+			opened.close();
+
+			throw e;
+		}
+
+		if (size == 0) {
+			mapped.putInt(0, MAGIC);
+			mapped.putInt(4, VERSION);
+			mapped.putLong(COUNT, 0);
+			mapped.putLong(NEXT_ID, 1);
+		} else if (mapped.getInt(0) != MAGIC || mapped.getInt(4) != VERSION) {
+			opened.close();
+
+			throw new IOException("%s is not a round log.".formatted(file));
+		}
+
+		if (this.channel != null) {
+			this.channel.close();
+		}
+
+		this.channel = opened;
+		this.records = mapped;
+		this.capacity = mappedCapacity;
+		this.count = (int) mapped.getLong(COUNT);
+		this.nextId = mapped.getLong(NEXT_ID);
+	}
+
+	/**
+	 * Deletes the generations of the log older than the one in use, left behind
+	 * when they could not be deleted while mapped. Newer ones are left alone, as
+	 * another process may be writing them, and replaced when rounds are deleted.
+	 */
+	private void deleteStaleGenerations() throws IOException {
+		try (DirectoryStream<Path> logs = Files.newDirectoryStream(this.directory, "rounds-*.log")) {
+			for (Path log : logs) {
+				Matcher name = GENERATION.matcher(log.getFileName().toString());
+
+				if (name.matches() && Long.parseLong(name.group(1)) < this.generation) {
+					try {
+						Files.delete(log);
+					} catch (IOException e) {
+						Logger.debug("Could not delete {} yet: {}", log, e.toString());
+					}
+				}
+			}
+		}
+	}
+
+	private static int offset(int index) {
+		return HEADER_BYTES + index * RECORD_BYTES;
+	}
+
+	/**
+	 * Keeps the latest start time seen up to each block, the sparse index.
+	 */
+	private void indexStart(int index, long startedAt) {
+		int block = index / BLOCK_RECORDS;
+
+		if (block >= this.blockLatestStart.length) {
+			this.blockLatestStart = Arrays.copyOf(this.blockLatestStart, this.blockLatestStart.length * 2);
+		}
+
+		long before = (index % BLOCK_RECORDS == 0) ? (block > 0 ? this.blockLatestStart[block - 1] : Long.MIN_VALUE) :
+			this.blockLatestStart[block];
+
+		this.blockLatestStart[block] = Math.max(before, startedAt);
+	}
+
+	/**
+	 * The first round that may have started after {@code startedAt}: every one
+	 * before it is known to have started at or before it.
+	 */
+	private int firstStartedAfter(long startedAt) {
+		int low = 0;
+		int high = (this.count + BLOCK_RECORDS - 1) / BLOCK_RECORDS;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (this.blockLatestStart[middle] <= startedAt) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low * BLOCK_RECORDS;
+	}
+
+	/**
+	 * The first round whose id is greater than {@code id}, ids only grow along
+	 * the file.
+	 */
+	private int firstIdAfter(long id) {
+		int low = 0;
+		int high = this.count;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (this.records.getLong(offset(middle) + ID) <= id) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	private RecordedRound read(int index) {
+		int offset = offset(index);
+
+		return new RecordedRound(
+			this.records.getLong(offset + ID),
+			new Round(
+				this.servers.decode(this.records.getInt(offset + SERVER)),
+				this.maps.decode(this.records.getInt(offset + MAP)),
+				this.modes.decode(this.records.getInt(offset + MODE)),
+				this.layers.decode(this.records.getInt(offset + LAYER)),
+				this.records.getInt(offset + PLAYERS),
+				ZonedDateTime.ofInstant(
+					Instant.ofEpochMilli(this.records.getLong(offset + STARTED_AT)),
+					ZoneOffset.ofTotalSeconds(this.records.getInt(offset + OFFSET_SECONDS))
+				)
+			)
+		);
+	}
+
+	/**
+	 * Searches the rounds a server played within the given timespan, oldest
+	 * first.
+	 */
+	@Override
+	public List<Round> queryByTimespam(String identifier, Duration searchSpam) throws SQLException {
+		return this.recordedSince(identifier, Instant.now().minus(searchSpam)).
+			stream().
+			map(RecordedRound::round).
+			toList();
+	}
+
+	@Override
+	public RoundPage pageBefore(String identifier, Instant since, PageCursor cursor, int size) throws SQLException {
+		return RoundPage.before(this.recordedSince(identifier, since), cursor, size);
+	}
+
+	@Override
+	public RoundPage pageAfter(String identifier, Instant since, PageCursor cursor, int size) throws SQLException {
+		return RoundPage.after(this.recordedSince(identifier, since), cursor, size);
+	}
+
+	/**
+	 * Rounds a server played since {@code since}, sorted by cursor.
+	 */
+	private List<RecordedRound> recordedSince(String identifier, Instant since) {
+		long start = System.nanoTime();
+
+		this.lock.readLock().lock();
+
+		try {
+			int server = this.servers.code(identifier);
+			long after = since.toEpochMilli();
+			List<RecordedRound> rounds = new ArrayList<>();
+
+			if (server < 0) {
+				return rounds;
+			}
+
+			for (int index = this.firstStartedAfter(after); index < this.count; index++) {
+				int offset = offset(index);
+
+				if (this.records.getInt(offset + SERVER) == server && this.records.getLong(offset + STARTED_AT) > after) {
+					rounds.add(this.read(index));
+				}
+			}
+
+			rounds.sort(Comparator.comparing(RecordedRound::cursor));
+
+			return rounds;
+		} finally {
+			this.lock.readLock().unlock();
+			QUERY_DURATION.observeSince(start, "rounds_since");
+		}
+	}
+
+	/**
+	 * Saves what a poll saw of each server. A round whose level differs from the
+	 * last one recorded for its server is appended, ending the previous one.
+	 * Otherwise the player count is added to the open round's peak and average
+	 * in place. Returns the new rounds.
+	 */
+	@Override
+	public List<Round> saveAnyNew(List<Round> rounds) throws SQLException {
+		if (rounds.isEmpty()) {
+			return List.of();
+		}
+
+		List<Round> saved = new ArrayList<>();
+		long start = System.nanoTime();
+
+		this.lock.writeLock().lock();
+
+		try {
+			this.prepareAppend(rounds);
+
+			for (Round round : rounds) {
+				Latest open = this.latestByServer.get(round.server());
+
+				if (open != null && open.recorded().round().equals(round)) {
+					int offset = offset(open.index());
+
+					this.records.putInt(offset + PEAK_PLAYERS, Math.max(this.records.getInt(offset + PEAK_PLAYERS), round.players()));
+					this.records.putLong(offset + PLAYERS_SUM, this.records.getLong(offset + PLAYERS_SUM) + round.players());
+					this.records.putInt(offset + SAMPLES, this.records.getInt(offset + SAMPLES) + 1);
+
+					continue;
+				}
+
+				long startedAt = round.startTime().toInstant().toEpochMilli();
+
+				if (open != null) {
+					this.records.putLong(offset(open.index()) + ENDED_AT, startedAt);
+				}
+
+				this.append(new RoundExport.Row(this.nextId, round, Optional.empty(), round.players(), round.players(), 1));
+				saved.add(round);
+			}
+
+			this.sync();
+		} catch (IOException e) {
+			throw new SQLException("Could not save rounds on the round log.", e);
+		} finally {
+			this.lock.writeLock().unlock();
+			INSERT_DURATION.observeSince(start);
+		}
+
+		return saved;
+	}
+
+	/**
+	 * Makes room for the rounds of a save that will be appended and gives codes
+	 * to their names, so nothing is left to fail once open rounds are changed
+	 * and a retried save doesn't count their players twice.
+	 */
+	private void prepareAppend(List<Round> rounds) throws IOException {
+		java.util.Map<String, Round> last = new HashMap<>();
+		int appended = 0;
+
+		for (Round round : rounds) {
+			Latest open = this.latestByServer.get(round.server());
+			Round previous = last.getOrDefault(round.server(), open == null ? null : open.recorded().round());
+
+			if (previous != null && previous.equals(round)) {
+				continue;
+			}
+
+			this.servers.encode(round.server());
+			this.maps.encode(round.map().toString());
+			this.modes.encode(round.mode().toString());
+			this.layers.encode(round.layer().toString());
+			last.put(round.server(), round);
+			appended++;
+		}
+
+		this.ensureCapacity(this.count + (long) appended);
+	}
+
+	/**
+	 * Grows the file to hold at least {@code needed} rounds, publishing the ones
+	 * appended so far as remapping reads the header back.
+	 */
+	private void ensureCapacity(long needed) throws IOException {
+		if (needed > MAX_CAPACITY) {
+			throw new IOException(
+				"The round log is full at %d rounds, set a retention or keep rounds on SQLite.".formatted(MAX_CAPACITY)
+			);
+		}
+
+		if (needed > this.capacity) {
+			this.records.putLong(NEXT_ID, this.nextId);
+			this.records.putLong(COUNT, this.count);
+			this.map(this.logFile(this.generation), (int) Math.min(MAX_CAPACITY, Math.max(needed, this.capacity * 2L)));
+		}
+	}
+
+	/**
+	 * Appends a round as it is, growing the file when full. Only visible to
+	 * other processes after {@link #sync()}.
+	 */
+	private void append(RoundExport.Row row) throws IOException {
+		this.ensureCapacity(this.count + 1L);
+
+		Round round = row.round();
+		int index = this.count;
+		int offset = offset(index);
+		long startedAt = round.startTime().toInstant().toEpochMilli();
+
+		this.records.putLong(offset + ID, row.id());
+		this.records.putLong(offset + STARTED_AT, startedAt);
+		this.records.putLong(offset + ENDED_AT, row.endedAt().map(Instant::toEpochMilli).orElse(OPEN));
+		this.records.putLong(offset + PLAYERS_SUM, row.playersSum());
+		this.records.putInt(offset + SERVER, this.servers.encode(round.server()));
+		this.records.putInt(offset + MAP, this.maps.encode(round.map().toString()));
+		this.records.putInt(offset + MODE, this.modes.encode(round.mode().toString()));
+		this.records.putInt(offset + LAYER, this.layers.encode(round.layer().toString()));
+		this.records.putInt(offset + PLAYERS, round.players());
+		this.records.putInt(offset + PEAK_PLAYERS, row.peakPlayers());
+		this.records.putInt(offset + SAMPLES, row.samples());
+		this.records.putInt(offset + OFFSET_SECONDS, round.startTime().getOffset().getTotalSeconds());
+
+		this.count++;
+		this.nextId = Math.max(this.nextId, row.id() + 1);
+		this.indexStart(index, startedAt);
+		this.addToRollup(this.rollup, index);
+		this.latestByServer.put(round.server(), new Latest(index, new RecordedRound(row.id(), round)));
+	}
+
+	/**
+	 * Publishes the rounds appended so far and writes them to disk.
+	 */
+	private void sync() {
+		this.records.putLong(NEXT_ID, this.nextId);
+		this.records.putLong(COUNT, this.count);
+		this.records.force();
+	}
+
+	private void addToRollup(java.util.Map<RollupKey, long[]> plays, int index) {
+		int offset = offset(index);
+		RollupKey key = new RollupKey(
+			this.records.getInt(offset + SERVER),
+			rollupDay(this.records.getLong(offset + STARTED_AT)),
+			this.records.getInt(offset + MAP),
+			this.records.getInt(offset + MODE),
+			this.records.getInt(offset + LAYER)
+		);
+		long[] totals = plays.computeIfAbsent(key, k -> new long[2]);
+
+		totals[0]++;
+		totals[1] += this.records.getInt(offset + PLAYERS);
+	}
+
+	private RollupKey rollupKey(String server, LocalDate day, LevelPlays plays) throws IOException {
+		return new RollupKey(
+			this.servers.encode(server),
+			day.toEpochDay(),
+			this.maps.encode(plays.map().toString()),
+			this.modes.encode(plays.mode().toString()),
+			this.layers.encode(plays.layer().toString())
+		);
+	}
+
+	private static long rollupDay(long startedAt) {
+		return LocalDate.ofInstant(Instant.ofEpochMilli(startedAt), ROLLUP_ZONE).toEpochDay();
+	}
+
+	/**
+	 * The rounds a server played on each level since the start of {@code since},
+	 * counted in memory from the log and the plays of deleted rounds.
+	 */
+	@Override
+	public List<LevelPlays> playsSince(String identifier, LocalDate since) throws SQLException {
+		long start = System.nanoTime();
+
+		this.lock.readLock().lock();
+
+		try {
+			int server = this.servers.code(identifier);
+			java.util.Map<List<Integer>, long[]> byLevel = new HashMap<>();
+
+			for (var entry : this.rollup.entrySet()) {
+				RollupKey key = entry.getKey();
+
+				if (key.server() == server && key.day() >= since.toEpochDay()) {
+					long[] totals = byLevel.computeIfAbsent(List.of(key.map(), key.mode(), key.layer()), k -> new long[2]);
+
+					totals[0] += entry.getValue()[0];
+					totals[1] += entry.getValue()[1];
+				}
+			}
+
+			List<LevelPlays> plays = new ArrayList<>();
+
+			byLevel.forEach((level, totals) -> plays.add(new LevelPlays(
+				this.maps.decode(level.get(0)),
+				this.modes.decode(level.get(1)),
+				this.layers.decode(level.get(2)),
+				(int) totals[0],
+				totals[1]
+			)));
+
+			return plays;
+		} finally {
+			this.lock.readLock().unlock();
+			QUERY_DURATION.observeSince(start, "plays_since");
+		}
+	}
+
+	/**
+	 * Hands every round started since {@code since} to {@code sink} in the order
+	 * they were saved. Rounds are copied a chunk at a time, so saving is never
+	 * held up by a slow sink. Returns how many rounds were handed.
+	 */
+	@Override
+	public long exportSince(Instant since, RoundExport.Sink sink) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long from = since.toEpochMilli();
+		long lastId = Long.MIN_VALUE;
+		long exported = 0;
+
+		try {
+			while (true) {
+				List<RoundExport.Row> chunk = new ArrayList<>(EXPORT_CHUNK);
+
+				this.lock.readLock().lock();
+
+				try {
+					int index = Math.max(this.firstIdAfter(lastId), this.firstStartedAfter(from - 1));
+
+					for (; index < this.count && chunk.size() < EXPORT_CHUNK; index++) {
+						int offset = offset(index);
+
+						if (this.records.getLong(offset + STARTED_AT) < from) {
+							continue;
+						}
+
+						long endedAt = this.records.getLong(offset + ENDED_AT);
+
+						chunk.add(new RoundExport.Row(
+							this.records.getLong(offset + ID),
+							this.read(index).round(),
+							endedAt == OPEN ? Optional.empty() : Optional.of(Instant.ofEpochMilli(endedAt)),
+							this.records.getInt(offset + PEAK_PLAYERS),
+							this.records.getLong(offset + PLAYERS_SUM),
+							this.records.getInt(offset + SAMPLES)
+						));
+					}
+
+					lastId = index > 0 ? this.records.getLong(offset(index - 1) + ID) : lastId;
+				} finally {
+					this.lock.readLock().unlock();
+				}
+
+				for (RoundExport.Row row : chunk) {
+					sink.accept(row);
+				}
+
+				exported += chunk.size();
+
+				if (chunk.size() < EXPORT_CHUNK) {
+					return exported;
+				}
+			}
+		} finally {
+			QUERY_DURATION.observeSince(start, "export");
+		}
+	}
+
+	/**
+	 * Deletes every finished round that started before {@code cutoff} by writing
+	 * the kept ones to the next generation of the log. Their plays are kept on
+	 * {@code rollup.bin}. Returns how many rounds were deleted.
+	 */
+	@Override
+	public long deleteEndedBefore(Instant cutoff) throws SQLException {
+		long before = cutoff.toEpochMilli();
+
+		this.lock.writeLock().lock();
+
+		try {
+			List<Integer> kept = new ArrayList<>();
+			java.util.Map<RollupKey, long[]> deleted = new HashMap<>();
+
+			this.deletedPlays.forEach((key, totals) -> deleted.put(key, totals.clone()));
+
+			for (int index = 0; index < this.count; index++) {
+				int offset = offset(index);
+
+				if (this.records.getLong(offset + STARTED_AT) < before && this.records.getLong(offset + ENDED_AT) != OPEN) {
+					this.addToRollup(deleted, index);
+				} else {
+					kept.add(index);
+				}
+			}
+
+			int deletedCount = this.count - kept.size();
+
+			if (deletedCount == 0) {
+				return 0;
+			}
+
+			long next = this.generation + 1;
+			Path temporary = this.directory.resolve(this.logFile(next).getFileName() + TEMPORARY);
+
+			Files.deleteIfExists(temporary);
+			this.writeGeneration(temporary, kept);
+			Files.move(temporary, this.logFile(next), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+			this.writeRollup(next, deleted);
+			this.deletedPlays.clear();
+			this.deletedPlays.putAll(deleted);
+
+			long previous = this.generation;
+
+			this.generation = next;
+			this.map(this.logFile(next), INITIAL_CAPACITY);
+			this.reindex();
+
+			try {
+				Files.deleteIfExists(this.logFile(previous));
+			} catch (IOException e) {
+				// Mapped files can't be deleted on some systems, reclaimSpace tries again later
+				Logger.debug("Could not delete {} yet: {}", this.logFile(previous), e.toString());
+			}
+
+			ROUNDS_DELETED.add(deletedCount);
+
+			return deletedCount;
+		} catch (IOException e) {
+			throw new SQLException("Could not delete rounds from the round log.", e);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	private void writeGeneration(Path file, List<Integer> kept) throws IOException {
+		int keptCapacity = (int) Math.min(MAX_CAPACITY, Math.max(INITIAL_CAPACITY, kept.size() * 2L));
+
+		try (FileChannel out = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+			MappedByteBuffer mapped = out.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES + (long) keptCapacity * RECORD_BYTES);
+
+			mapped.putInt(0, MAGIC);
+			mapped.putInt(4, VERSION);
+			mapped.putLong(COUNT, kept.size());
+			mapped.putLong(NEXT_ID, this.nextId);
+
+			for (int i = 0; i < kept.size(); i++) {
+				mapped.put(offset(i), this.records, offset(kept.get(i)), RECORD_BYTES);
+			}
+
+			mapped.force();
+		}
+	}
+
+	private void reindex() {
+		this.latestByServer.clear();
+
+		for (int index = 0; index < this.count; index++) {
+			this.indexStart(index, this.records.getLong(offset(index) + STARTED_AT));
+			this.latestByServer.put(this.servers.decode(this.records.getInt(offset(index) + SERVER)), new Latest(index, this.read(index)));
+		}
+	}
+
+	/**
+	 * Deletes the generations of the log left behind by deleting rounds. Deleted
+	 * rounds take no space on the generation in use.
+	 */
+	@Override
+	public void reclaimSpace() throws SQLException {
+		this.lock.writeLock().lock();
+
+		try {
+			this.deleteStaleGenerations();
+		} catch (IOException e) {
+			throw new SQLException("Could not reclaim space from the round log.", e);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	@Override
+	public Optional<String> setting(String key) {
+		this.lock.readLock().lock();
+
+		try {
+			return Optional.ofNullable(this.settings.getProperty(key));
+		} finally {
+			this.lock.readLock().unlock();
+		}
+	}
+
+	@Override
+	public void saveSetting(String key, String value) throws SQLException {
+		this.lock.writeLock().lock();
+
+		try {
+			this.settings.setProperty(key, value);
+			this.writeSettings();
+		} catch (IOException e) {
+			throw new SQLException("Could not save the setting %s.".formatted(key), e);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	/**
+	 * The round a server is playing, as far as the last save knows.
+	 */
+	@Override
+	public Optional<Round> currentRound(String identifier) {
+		return Optional.ofNullable(this.latestByServer.get(identifier)).map(latest -> latest.recorded().round());
+	}
+
+	/**
+	 * How long rounds on a server usually last, the median length of its latest
+	 * finished rounds, found reading the log backwards. Empty while there is too
+	 * little history.
+	 */
+	@Override
+	public Optional<Duration> typicalRoundLength(String identifier) {
+		long[] lengths = new long[ROUND_LENGTH_SAMPLES];
+		int found = 0;
+		long start = System.nanoTime();
+
+		this.lock.readLock().lock();
+
+		try {
+			int server = this.servers.code(identifier);
+
+			for (int index = this.count - 1; index >= 0 && server >= 0 && found < ROUND_LENGTH_SAMPLES; index--) {
+				int offset = offset(index);
+				long endedAt = this.records.getLong(offset + ENDED_AT);
+
+				if (this.records.getInt(offset + SERVER) == server && endedAt != OPEN) {
+					lengths[found++] = endedAt - this.records.getLong(offset + STARTED_AT);
+				}
+			}
+		} finally {
+			this.lock.readLock().unlock();
+			QUERY_DURATION.observeSince(start, "round_lengths");
+		}
+
+		if (found < 2) {
+			return Optional.empty();
+		}
+
+		Arrays.sort(lengths, 0, found);
+
+		return Optional.of(Duration.ofMillis(lengths[found / 2]));
+	}
+
+	/**
+	 * Closes the file. Everything saved was already written, so exports running
+	 * beside the bot never write to it.
+	 */
+	@Override
+	public void close() throws SQLException {
+		this.lock.writeLock().lock();
+
+		try {
+			if (this.channel != null) {
+				this.channel.close();
+				this.channel = null;
+			}
+		} catch (IOException e) {
+			throw new SQLException("Could not close the round log.", e);
+		} finally {
+			this.lock.writeLock().unlock();
+		}
+	}
+
+	private void closeQuietly() {
+		try {
+			this.close();
+		} catch (SQLException e) {
+			Logger.warn(e.toString());
+		}
+	}
+
+	private void loadNames() throws IOException {
+		List<String> lines;
+
+		try {
+			lines = Files.readAllLines(this.directory.resolve(NAMES_FILE), StandardCharsets.UTF_8);
+		} catch (NoSuchFileException e) {
+			return;
+		}
+
+		for (String line : lines) {
+			int tab = line.indexOf('\t');
+
+			if (tab < 0) {
+				continue;
+			}
+
+			String kind = line.substring(0, tab);
+			String name = line.substring(tab + 1);
+
+			for (Codes<?> codes : List.of(this.servers, this.maps, this.modes, this.layers)) {
+				if (codes.kind.equals(kind)) {
+					codes.publish(name);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads the plays of deleted rounds, returning the generation of the log
+	 * they go with.
+	 */
+	private long loadRollup() throws IOException {
+		Path file = this.directory.resolve(ROLLUP_FILE);
+
+		if (!Files.exists(file)) {
+			return 0;
+		}
+
+		try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+			long rollupGeneration = in.readLong();
+			int entries = in.readInt();
+
+			for (int i = 0; i < entries; i++) {
+				RollupKey key = new RollupKey(in.readInt(), in.readLong(), in.readInt(), in.readInt(), in.readInt());
+				long[] totals = {in.readLong(), in.readLong()};
+
+				this.deletedPlays.put(key, totals);
+				this.rollup.put(key, totals.clone());
+			}
+
+			return rollupGeneration;
+		}
+	}
+
+	private void writeRollup(long rollupGeneration, java.util.Map<RollupKey, long[]> plays) throws IOException {
+		Path file = this.directory.resolve(ROLLUP_FILE);
+		Path temporary = this.directory.resolve(ROLLUP_FILE + TEMPORARY);
+
+		try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temporary))) {
+			out.writeLong(rollupGeneration);
+			out.writeInt(plays.size());
+
+			for (var entry : plays.entrySet()) {
+				RollupKey key = entry.getKey();
+
+				out.writeInt(key.server());
+				out.writeLong(key.day());
+				out.writeInt(key.map());
+				out.writeInt(key.mode());
+				out.writeInt(key.layer());
+				out.writeLong(entry.getValue()[0]);
+				out.writeLong(entry.getValue()[1]);
+			}
+		}
+
+		Files.move(temporary, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private void loadSettings() throws IOException {
+		try (Reader reader = Files.newBufferedReader(this.directory.resolve(SETTINGS_FILE), StandardCharsets.UTF_8)) {
+			this.settings.load(reader);
+		} catch (NoSuchFileException e) {
+			// Nothing saved yet
+		}
+	}
+
+	private void writeSettings() throws IOException {
+		Path temporary = this.directory.resolve(SETTINGS_FILE + TEMPORARY);
+
+		try (Writer writer = Files.newBufferedWriter(temporary, StandardCharsets.UTF_8)) {
+			this.settings.store(writer, null);
+		}
+
+		Files.move(temporary, this.directory.resolve(SETTINGS_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Codes for one kind of name, the position of the name among those of its
+	 * kind on {@code names.txt}. A name is written there before any round using
+	 * its code. Codes missing from the file decode to {@code unknown}, as they
+	 * do on SQLite.
+	 */
+	private final class Codes<T> {
+		private final String kind;
+		private final Function<String, T> parser;
+		private final T unknown;
+		private final java.util.Map<String, Integer> codes = new ConcurrentHashMap<>();
+		private volatile List<T> values = List.of();
+
+		Codes(String kind, Function<String, T> parser, T unknown) {
+			this.kind = kind;
+			this.parser = parser;
+			this.unknown = unknown;
+		}
+
+		int code(String name) {
+			return this.codes.getOrDefault(name, -1);
+		}
+
+		T decode(int code) {
+			List<T> decoded = this.values;
+
+			return code >= 0 && code < decoded.size() ? decoded.get(code) : this.unknown;
+		}
+
+		int encode(String name) throws IOException {
+			Integer code = this.codes.get(name);
+
+			if (code != null) {
+				return code;
+			}
+
+			Files.writeString(
+				RoundLog.this.directory.resolve(NAMES_FILE),
+				this.kind + "\t" + name + "\n",
+				StandardCharsets.UTF_8,
+				StandardOpenOption.CREATE,
+				StandardOpenOption.APPEND,
+				StandardOpenOption.SYNC
+			);
+
+			return this.publish(name);
+		}
+
+		int publish(String name) {
+			List<T> published = new ArrayList<>(this.values);
+
+			published.add(this.parser.apply(name));
+			this.values = List.copyOf(published);
+			this.codes.put(name, published.size() - 1);
+
+			return published.size() - 1;
+		}
+	}
+}
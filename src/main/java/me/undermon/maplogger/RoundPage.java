@@ -0,0 +1,53 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * A slice of a server's rounds, oldest first, with the cursors to search the
+ * pages right before and after it when there are any.
+ */
+public record RoundPage(List<Round> rounds, Optional<PageCursor> older, Optional<PageCursor> newer) {
+
+	/**
+	 * The page of at most {@code size} rounds right before {@code cursor}, out
+	 * of every round of a search sorted by cursor.
+	 */
+	static RoundPage before(List<RecordedRound> rounds, PageCursor cursor, int size) {
+		int end = RecentRoundsCache.indexAfter(rounds, cursor);
+
+		if (end > 0 && rounds.get(end - 1).cursor().equals(cursor)) {
+			end--;
+		}
+
+		int start = Math.max(0, end - size);
+
+		return of(rounds.subList(start, end), start > 0, end < rounds.size());
+	}
+
+	/**
+	 * The page of at most {@code size} rounds right after {@code cursor}, out
+	 * of every round of a search sorted by cursor.
+	 */
+	static RoundPage after(List<RecordedRound> rounds, PageCursor cursor, int size) {
+		int start = RecentRoundsCache.indexAfter(rounds, cursor);
+		int end = Math.min(rounds.size(), start + size);
+
+		return of(rounds.subList(start, end), start > 0, end < rounds.size());
+	}
+
+	static RoundPage of(List<RecordedRound> slice, boolean hasOlder, boolean hasNewer) {
+		return new RoundPage(
+			slice.stream().map(RecordedRound::round).toList(),
+			(hasOlder && !slice.isEmpty()) ? Optional.of(slice.get(0).cursor()) : Optional.empty(),
+			(hasNewer && !slice.isEmpty()) ? Optional.of(slice.get(slice.size() - 1).cursor()) : Optional.empty()
+		);
+	}
+
+}
@@ -6,25 +6,39 @@
 
 package me.undermon.maplogger;
 
+import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Optional;
+import java.util.OptionalInt;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
-import javax.sql.DataSource;
-
-import org.sqlite.SQLiteDataSource;
+import org.tinylog.Logger;
 
+import me.undermon.maplogger.metrics.Counter;
+import me.undermon.maplogger.metrics.Histogram;
+import me.undermon.maplogger.metrics.Metrics;
 import me.undermon.realityapi.spy.Layer;
 import me.undermon.realityapi.spy.Map;
 import me.undermon.realityapi.spy.Mode;
 
 
-public class RoundRepository {
+public class RoundRepository implements RoundStore {
 
 	private static final DateTimeFormatter DATE_TIME_FORMATTER = DateTimeFormatter.ISO_OFFSET_DATE_TIME;
 	private static final String ID = "id";
@@ -34,132 +48,1173 @@ public class RoundRepository {
 	private static final String LAYER = "layer";
 	private static final String PLAYERS = "players";
 	private static final String TIMESTAMP = "timestamp";
+	private static final String STARTED_AT = "started_at";
+	private static final String ENDED_AT = "ended_at";
+	private static final String PEAK_PLAYERS = "peak_players";
+	private static final String PLAYERS_SUM = "players_sum";
+	private static final String SAMPLES = "samples";
+	private static final int MIGRATION_BATCH_SIZE = 1000;
+	private static final int READ_CONNECTIONS = 4;
+	private static final int ROUND_LENGTH_SAMPLES = 50;
+	private static final int DELETE_BATCH_SIZE = 500;
+	private static final int VACUUM_BATCH_PAGES = 1000;
+	private static final int MAX_VACUUM_BATCHES = 100;
+	private static final int EXPORT_CHUNK = 1000;
+	private static final int INCREMENTAL_AUTO_VACUUM = 2;
+
+	private static final Histogram QUERY_DURATION = Metrics.histogram(
+		"db_query_duration_seconds", "Time taken by database reads, by query.", Histogram.SECONDS, "query"
+	);
+	private static final Histogram INSERT_DURATION = Metrics.histogram(
+		"db_insert_duration_seconds", "Time taken by transactions saving rounds.", Histogram.SECONDS
+	);
+	private static final Counter ROUNDS_DELETED = Metrics.counter(
+		"rounds_deleted", "Rounds deleted for being older than the retention."
+	);
+	private static final Counter RECENT_LOOKUPS = Metrics.counter(
+		"recent_rounds_lookups", "Searches of recent rounds, by whether the cache had them.", "result"
+	);
+
+	private final SQLiteConnections connections;
+	private final RecentRoundsCache recentRounds;
+	private final java.util.Map<String, RecordedRound> lastRoundByServer = new ConcurrentHashMap<>();
+	private final Dictionary<String> servers = new Dictionary<>("servers", name -> name, "");
+	private final Dictionary<Map> maps = new Dictionary<>("maps", Map::fromString, Map.UNKNOWN);
+	private final Dictionary<Mode> modes = new Dictionary<>("modes", Mode::fromString, Mode.UNKNOWN);
+	private final Dictionary<Layer> layers = new Dictionary<>("layers", Layer::fromString, Layer.UNKNOWN);
 
-	private final DataSource dataSource;
-
-	final String createTableSQL = """
-		CREATE TABLE IF NOT EXISTS history (
-		  %s INTEGER PRIMARY KEY,
-		  %s TEXT NOT NULL,
-		  %s TEXT NOT NULL,
-		  %s TEXT NOT NULL,
-		  %s TEXT NOT NULL,
-		  %s INTEGER NOT NULL,
-		  %s TEXT NOT NULL
+	private static final String CREATE_HISTORY_SQL = """
+		CREATE TABLE IF NOT EXISTS %s (
+		  id INTEGER PRIMARY KEY,
+		  server INTEGER NOT NULL,
+		  map INTEGER NOT NULL,
+		  mode INTEGER NOT NULL,
+		  layer INTEGER NOT NULL,
+		  players INTEGER NOT NULL,
+		  timestamp TEXT NOT NULL,
+		  started_at INTEGER,
+		  ended_at INTEGER,
+		  peak_players INTEGER,
+		  players_sum INTEGER,
+		  samples INTEGER
 		);
-		""".formatted(ID, SERVER, MAP, MODE, LAYER, PLAYERS, TIMESTAMP);
-	
+		""";
+
+	private static final String COLUMNS_SQL = "PRAGMA table_info(history);";
+
+	private static final String COLUMN_TYPE_SQL = "SELECT type FROM pragma_table_info(?) WHERE name = ?;";
+
+	private static final String ENCODE_HISTORY_SQL = """
+		INSERT INTO history_encoded (
+		  id, server, map, mode, layer, players, timestamp, started_at, ended_at, peak_players, players_sum, samples
+		)
+		SELECT
+		  history.id, servers.code, maps.code, modes.code, layers.code,
+		  players, timestamp, started_at, ended_at, peak_players, players_sum, samples
+		FROM history
+		JOIN servers ON servers.name = history.server
+		JOIN maps ON maps.name = history.map
+		JOIN modes ON modes.name = history.mode
+		JOIN layers ON layers.name = history.layer;
+		""";
+
+	private static final String ENCODE_ROLLUP_SQL = """
+		INSERT INTO daily_rollup_encoded (server, day, map, mode, layer, rounds, players)
+		SELECT servers.code, day, maps.code, modes.code, layers.code, rounds, players
+		FROM daily_rollup
+		JOIN servers ON servers.name = daily_rollup.server
+		JOIN maps ON maps.name = daily_rollup.map
+		JOIN modes ON modes.name = daily_rollup.mode
+		JOIN layers ON layers.name = daily_rollup.layer;
+		""";
+
+	private static final String ADD_COLUMN_SQL = "ALTER TABLE history ADD COLUMN %s INTEGER;";
+
+	private static final String UNMIGRATED_ROUNDS_SQL = """
+		SELECT %s, %s FROM history WHERE %s IS NULL;
+		""".formatted(ID, TIMESTAMP, STARTED_AT);
+
+	private static final String MIGRATE_ROUND_SQL = """
+		UPDATE history SET %s = ? WHERE %s = ?;
+		""".formatted(STARTED_AT, ID);
+
+	private static final String BACKFILL_SAMPLES_SQL = """
+		UPDATE history SET %s = %s, %s = %s, %s = 1 WHERE %s IS NULL;
+		""".formatted(PEAK_PLAYERS, PLAYERS, PLAYERS_SUM, PLAYERS, SAMPLES, SAMPLES);
+
+	private static final String BACKFILL_ENDED_AT_SQL = """
+		UPDATE history SET ended_at = (
+		  SELECT MIN(next.started_at) FROM history AS next
+		  WHERE next.server = history.server AND next.started_at > history.started_at
+		)
+		WHERE ended_at IS NULL;
+		""";
+
+	private static final String CREATE_INDEX_SQL = """
+		CREATE INDEX IF NOT EXISTS history_server_started_at ON history (%s, %s);
+		""".formatted(SERVER, STARTED_AT);
+
 	private static final String ROUNDS_BY_TIMESPAM_SQL = """
-		SELECT %s, %s, %s, %s, %s FROM history WHERE (
-		  server = ? AND datetime(timestamp) > datetime(?)
-		);
-		""".formatted(MAP, MODE, LAYER, PLAYERS, TIMESTAMP);
+		SELECT %s, %s, %s, %s, %s, %s FROM history
+		WHERE server = ? AND started_at > ?
+		ORDER BY started_at, id;
+		""".formatted(ID, MAP, MODE, LAYER, PLAYERS, TIMESTAMP);
+
+	private static final String PAGE_BEFORE_SQL = """
+		SELECT %s, %s, %s, %s, %s, %s FROM history
+		WHERE server = ? AND started_at > ? AND (started_at, id) < (?, ?)
+		ORDER BY started_at DESC, id DESC
+		LIMIT ?;
+		""".formatted(ID, MAP, MODE, LAYER, PLAYERS, TIMESTAMP);
+
+	private static final String PAGE_AFTER_SQL = """
+		SELECT %s, %s, %s, %s, %s, %s FROM history
+		WHERE server = ? AND started_at > ? AND (started_at, id) > (?, ?)
+		ORDER BY started_at, id
+		LIMIT ?;
+		""".formatted(ID, MAP, MODE, LAYER, PLAYERS, TIMESTAMP);
 
 	private static final String SAVE_ROUNDS_SQL = """
 		INSERT INTO history (
-		  server, map, mode, layer, players, timestamp
-		) VALUES (?, ?, ?, ?, ?, ?);
+		  server, map, mode, layer, players, timestamp, started_at, peak_players, players_sum, samples
+		) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, 1)
+		RETURNING id;
+		""";
+
+	private static final String SAMPLE_ROUND_SQL = """
+		UPDATE history
+		SET peak_players = MAX(peak_players, ?), players_sum = players_sum + ?, samples = samples + 1
+		WHERE id = ?;
+		""";
+
+	private static final String END_ROUND_SQL = """
+		UPDATE history SET ended_at = ? WHERE id = ?;
+		""";
+
+	private static final String ROLLUP_EXISTS_SQL = """
+		SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = 'daily_rollup';
+		""";
+
+	private static final String CREATE_ROLLUP_SQL = """
+		CREATE TABLE %s (
+		  server INTEGER NOT NULL,
+		  day INTEGER NOT NULL,
+		  map INTEGER NOT NULL,
+		  mode INTEGER NOT NULL,
+		  layer INTEGER NOT NULL,
+		  rounds INTEGER NOT NULL,
+		  players INTEGER NOT NULL,
+		  PRIMARY KEY (server, day, map, mode, layer)
+		) WITHOUT ROWID;
+		""";
+
+	private static final String ALL_ROUNDS_SQL = """
+		SELECT server, map, mode, layer, players, started_at FROM history
+		ORDER BY server, started_at;
+		""";
+
+	private static final String ROLLUP_ROUNDS_SQL = """
+		INSERT INTO daily_rollup (server, day, map, mode, layer, rounds, players)
+		VALUES (?, ?, ?, ?, ?, ?, ?)
+		ON CONFLICT (server, day, map, mode, layer)
+		DO UPDATE SET rounds = rounds + excluded.rounds, players = players + excluded.players;
+		""";
+
+	private static final String PLAYS_SINCE_SQL = """
+		SELECT map, mode, layer, SUM(rounds) AS rounds, SUM(players) AS players FROM daily_rollup
+		WHERE server = ? AND day >= ?
+		GROUP BY map, mode, layer;
+		""";
+
+	private static final String DELETE_ENDED_BEFORE_SQL = """
+		DELETE FROM history WHERE id IN (
+		  SELECT id FROM history
+		  WHERE server = ? AND started_at < ? AND ended_at IS NOT NULL
+		  ORDER BY started_at
+		  LIMIT ?
+		);
+		""";
+
+	private static final String EXPORT_SQL = """
+		SELECT %s, %s, %s, %s, %s, %s, %s, %s, %s, %s, %s FROM history
+		WHERE id > ? AND started_at >= ?
+		ORDER BY id
+		LIMIT ?;
+		""".formatted(ID, SERVER, MAP, MODE, LAYER, PLAYERS, TIMESTAMP, ENDED_AT, PEAK_PLAYERS, PLAYERS_SUM, SAMPLES);
+
+	private static final String ALL_ROLLUP_SQL = """
+		SELECT server, day, map, mode, layer, rounds, players FROM daily_rollup;
+		""";
+
+	private static final String ALL_SETTINGS_SQL = "SELECT key, value FROM settings;";
+
+	private static final String SERVERS_SQL = "SELECT DISTINCT server FROM history;";
+
+	private static final String INCREMENTAL_AUTO_VACUUM_SQL = "PRAGMA auto_vacuum = INCREMENTAL;";
+
+	private static final String AUTO_VACUUM_SQL = "PRAGMA auto_vacuum;";
+
+	private static final String FREE_PAGES_SQL = "PRAGMA freelist_count;";
+
+	private static final String INCREMENTAL_VACUUM_SQL = "PRAGMA incremental_vacuum(%d);".formatted(VACUUM_BATCH_PAGES);
+
+	private static final String CREATE_SETTINGS_SQL = """
+		CREATE TABLE IF NOT EXISTS settings (key TEXT PRIMARY KEY, value TEXT NOT NULL) WITHOUT ROWID;
+		""";
+
+	private static final String SETTING_SQL = "SELECT value FROM settings WHERE key = ?;";
+
+	private static final String SAVE_SETTING_SQL = """
+		INSERT INTO settings (key, value) VALUES (?, ?)
+		ON CONFLICT (key) DO UPDATE SET value = excluded.value;
 		""";
 
 	private static final String LAST_ROUNDS_SQL = """
-			SELECT server, map, mode, layer, players, MAX(timestamp) AS latest_timestamp
+			SELECT id, server, map, mode, layer, players, timestamp AS latest_timestamp, MAX(started_at)
 			FROM history
-			GROUP BY server
-			ORDER BY datetime(latest_timestamp) DESC;
+			GROUP BY server;
 			""";
 
-	public RoundRepository(DataSource dataSource) throws SQLException {
-		this.dataSource = dataSource;
-		
-		try (var statement = dataSource.getConnection().prepareStatement(createTableSQL)) {
-			statement.execute();
+	private static final String RECENT_LENGTHS_SQL = """
+		SELECT ended_at - started_at AS length FROM history
+		WHERE server = ? AND ended_at IS NOT NULL
+		ORDER BY started_at DESC
+		LIMIT ?;
+		""";
+
+	RoundRepository(SQLiteConnections connections, RecentRoundsCache recentRounds) throws SQLException {
+		this.connections = connections;
+		this.recentRounds = recentRounds;
+
+		try (var writer = connections.writer()) {
+			Connection connection = writer.connection();
+
+			for (Dictionary<?> dictionary : this.dictionaries()) {
+				dictionary.load(connection);
+			}
+
+			try (var statement = connection.prepareStatement(CREATE_HISTORY_SQL.formatted("history"))) {
+				statement.execute();
+			}
+
+			this.migrateStartedAt(connection);
+
+			try (var statement = connection.prepareStatement(CREATE_INDEX_SQL)) {
+				statement.execute();
+			}
+
+			this.migrateRoundStats(connection);
+			this.encodeNames(connection);
+			this.createRollup(connection);
+
+			try (var statement = connection.prepareStatement(CREATE_SETTINGS_SQL)) {
+				statement.execute();
+			}
+
+			this.lastRounds(writer).forEach(recorded -> this.lastRoundByServer.put(recorded.round().server(), recorded));
 		}
 	}
 
-	public List<Round> queryByTimespam(String identifier, Duration searchSpam) throws SQLException {
-		try (var connection = this.dataSource.getConnection()) {
-			try (var statement = connection.prepareStatement(ROUNDS_BY_TIMESPAM_SQL)) {
-				
-				statement.setString(1, identifier);
-				statement.setString(2, ZonedDateTime.now().minus(searchSpam).format(DATE_TIME_FORMATTER));
-
-				ResultSet results = statement.executeQuery();
-				
-				List<Round> rounds = new ArrayList<>();
-				
-				while (results.next()) {
-					rounds.add(new Round(
-						identifier,
-						Map.fromString(results.getString(MAP)),
-						Mode.fromString(results.getString(MODE)),
-						Layer.fromString(results.getString(LAYER)),
-						results.getInt(PLAYERS),
-						ZonedDateTime.parse(results.getString(TIMESTAMP)))
+	/**
+	 * Databases created before {@code started_at} existed only have the ISO-8601
+	 * {@code timestamp} text, which can't be range scanned through an index. Adds
+	 * the column if missing and fills it from the text of every row that lacks it.
+	 */
+	private void migrateStartedAt(Connection connection) throws SQLException {
+		if (!columns(connection).contains(STARTED_AT)) {
+			try (var statement = connection.prepareStatement(ADD_COLUMN_SQL.formatted(STARTED_AT))) {
+				statement.execute();
+			}
+		}
+
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+
+		try (
+			var select = connection.prepareStatement(UNMIGRATED_ROUNDS_SQL);
+			var update = connection.prepareStatement(MIGRATE_ROUND_SQL)
+		) {
+			ResultSet unmigrated = select.executeQuery();
+			int pending = 0;
+
+			while (unmigrated.next()) {
+				update.setLong(1, ZonedDateTime.parse(unmigrated.getString(TIMESTAMP)).toInstant().toEpochMilli());
+				update.setLong(2, unmigrated.getLong(ID));
+				update.addBatch();
+
+				if (++pending % MIGRATION_BATCH_SIZE == 0) {
+					update.executeBatch();
+				}
+			}
+
+			update.executeBatch();
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Databases created before rounds kept their end and player counts only have
+	 * the count seen when each round started. Adds the columns and fills them
+	 * once: that count stands for the whole round, which ended when the next one
+	 * on its server started.
+	 */
+	private void migrateRoundStats(Connection connection) throws SQLException {
+		Set<String> columns = columns(connection);
+
+		if (columns.contains(SAMPLES)) {
+			return;
+		}
+
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+
+		try (var statement = connection.createStatement()) {
+			for (String column : List.of(ENDED_AT, PEAK_PLAYERS, PLAYERS_SUM, SAMPLES)) {
+				if (!columns.contains(column)) {
+					statement.execute(ADD_COLUMN_SQL.formatted(column));
+				}
+			}
+
+			statement.execute(BACKFILL_SAMPLES_SQL);
+			statement.execute(BACKFILL_ENDED_AT_SQL);
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Databases created before rounds were dictionary encoded repeat the server,
+	 * map, mode and layer names as text on every row. Gives a code to every name
+	 * found and rebuilds history, and the daily rollup if there is one, with the
+	 * codes in their place.
+	 */
+	private void encodeNames(Connection connection) throws SQLException {
+		if (!"TEXT".equalsIgnoreCase(columnType(connection, "history", SERVER))) {
+			return;
+		}
+
+		Logger.info("Encoding the names stored on every round, this happens only once.");
+
+		boolean rollupExists = rollupExists(connection);
+		List<String> sources = rollupExists ? List.of("history", "daily_rollup") : List.of("history");
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+
+		try (var statement = connection.createStatement()) {
+			for (String source : sources) {
+				this.servers.addAll(connection, SERVER, source);
+				this.maps.addAll(connection, MAP, source);
+				this.modes.addAll(connection, MODE, source);
+				this.layers.addAll(connection, LAYER, source);
+			}
+
+			statement.execute(CREATE_HISTORY_SQL.formatted("history_encoded"));
+			statement.execute(ENCODE_HISTORY_SQL);
+			statement.execute("DROP TABLE history;");
+			statement.execute("ALTER TABLE history_encoded RENAME TO history;");
+			statement.execute(CREATE_INDEX_SQL);
+
+			if (rollupExists) {
+				statement.execute(CREATE_ROLLUP_SQL.formatted("daily_rollup_encoded"));
+				statement.execute(ENCODE_ROLLUP_SQL);
+				statement.execute("DROP TABLE daily_rollup;");
+				statement.execute("ALTER TABLE daily_rollup_encoded RENAME TO daily_rollup;");
+			}
+
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+
+		for (Dictionary<?> dictionary : this.dictionaries()) {
+			dictionary.load(connection);
+		}
+	}
+
+	private List<Dictionary<?>> dictionaries() {
+		return List.of(this.servers, this.maps, this.modes, this.layers);
+	}
+
+	private static String columnType(Connection connection, String table, String column) throws SQLException {
+		try (var statement = connection.prepareStatement(COLUMN_TYPE_SQL)) {
+			statement.setString(1, table);
+			statement.setString(2, column);
+
+			try (ResultSet result = statement.executeQuery()) {
+				return result.next() ? result.getString("type") : "";
+			}
+		}
+	}
+
+	private static boolean rollupExists(Connection connection) throws SQLException {
+		try (var statement = connection.prepareStatement(ROLLUP_EXISTS_SQL); ResultSet exists = statement.executeQuery()) {
+			return exists.next();
+		}
+	}
+
+	private static Set<String> columns(Connection connection) throws SQLException {
+		Set<String> columns = new HashSet<>();
+
+		try (var statement = connection.prepareStatement(COLUMNS_SQL); ResultSet results = statement.executeQuery()) {
+			while (results.next()) {
+				columns.add(results.getString("name"));
+			}
+		}
+
+		return columns;
+	}
+
+	/**
+	 * Creates the daily rollup of the rounds each server played per level, filling
+	 * it once from the whole history when it didn't exist yet. From then on it is
+	 * kept up to date by {@link #saveAnyNew(List)}.
+	 */
+	private void createRollup(Connection connection) throws SQLException {
+		if (rollupExists(connection)) {
+			return;
+		}
+
+		boolean autoCommit = connection.getAutoCommit();
+		connection.setAutoCommit(false);
+
+		try {
+			try (var create = connection.createStatement()) {
+				create.execute(CREATE_ROLLUP_SQL.formatted("daily_rollup"));
+			}
+
+			backfillRollup(connection);
+			connection.commit();
+		} catch (SQLException e) {
+			connection.rollback();
+			throw e;
+		} finally {
+			connection.setAutoCommit(autoCommit);
+		}
+	}
+
+	/**
+	 * Reads the history one server and day at a time, in the order of its index,
+	 * so only the levels of a single day are held while counting them.
+	 */
+	private static void backfillRollup(Connection connection) throws SQLException {
+		try (
+			var select = connection.prepareStatement(ALL_ROUNDS_SQL);
+			var upsert = connection.prepareStatement(ROLLUP_ROUNDS_SQL)
+		) {
+			java.util.Map<RollupKey, long[]> day = new HashMap<>();
+			RollupKey previous = null;
+			int pending = 0;
+
+			try (ResultSet rounds = select.executeQuery()) {
+				while (rounds.next()) {
+					RollupKey key = new RollupKey(
+						rounds.getInt(SERVER),
+						rollupDay(rounds.getLong(STARTED_AT)),
+						rounds.getInt(MAP),
+						rounds.getInt(MODE),
+						rounds.getInt(LAYER)
 					);
+
+					if (previous != null && (previous.server() != key.server() || previous.day() != key.day())) {
+						pending = addRollup(upsert, day, pending);
+						day.clear();
+					}
+
+					long[] totals = day.computeIfAbsent(key, k -> new long[2]);
+
+					totals[0]++;
+					totals[1] += rounds.getInt(PLAYERS);
+					previous = key;
 				}
-				
-				return rounds;
 			}
+
+			addRollup(upsert, day, pending);
+			upsert.executeBatch();
+		}
+	}
+
+	private static int addRollup(PreparedStatement upsert, java.util.Map<RollupKey, long[]> day, int pending)
+			throws SQLException {
+
+		for (var entry : day.entrySet()) {
+			RollupKey key = entry.getKey();
+
+			upsert.setInt(1, key.server());
+			upsert.setLong(2, key.day());
+			upsert.setInt(3, key.map());
+			upsert.setInt(4, key.mode());
+			upsert.setInt(5, key.layer());
+			upsert.setLong(6, entry.getValue()[0]);
+			upsert.setLong(7, entry.getValue()[1]);
+			upsert.addBatch();
+
+			if (++pending % MIGRATION_BATCH_SIZE == 0) {
+				upsert.executeBatch();
+			}
+		}
+
+		return pending;
+	}
+
+	private record RollupKey(int server, long day, int map, int mode, int layer) {}
+
+	private static long rollupDay(long startedAt) {
+		return LocalDate.ofInstant(Instant.ofEpochMilli(startedAt), ROLLUP_ZONE).toEpochDay();
+	}
+
+	/**
+	 * Searches the rounds a server played within the given timespan, oldest
+	 * first.
+	 */
+	@Override
+	public List<Round> queryByTimespam(String identifier, Duration searchSpam) throws SQLException {
+		return this.recordedSince(identifier, Instant.now().minus(searchSpam)).
+			stream().
+			map(RecordedRound::round).
+			toList();
+	}
+
+	/**
+	 * Searches the page of at most {@code size} rounds a server played since
+	 * {@code since} that come right before {@code cursor}.
+	 */
+	@Override
+	public RoundPage pageBefore(String identifier, Instant since, PageCursor cursor, int size) throws SQLException {
+		Optional<List<RecordedRound>> recent = this.recentSince(identifier, since);
+
+		if (recent.isPresent()) {
+			return RoundPage.before(recent.get(), cursor, size);
+		}
+
+		List<RecordedRound> page = this.selectPage(PAGE_BEFORE_SQL, identifier, since, cursor, size + 1);
+		boolean hasOlder = page.size() > size;
+
+		page = new ArrayList<>(page.subList(0, Math.min(size, page.size())));
+		Collections.reverse(page);
+
+		return RoundPage.of(page, hasOlder, !cursor.equals(PageCursor.LATEST));
+	}
+
+	/**
+	 * Searches the page of at most {@code size} rounds a server played since
+	 * {@code since} that come right after {@code cursor}.
+	 */
+	@Override
+	public RoundPage pageAfter(String identifier, Instant since, PageCursor cursor, int size) throws SQLException {
+		Optional<List<RecordedRound>> recent = this.recentSince(identifier, since);
+
+		if (recent.isPresent()) {
+			return RoundPage.after(recent.get(), cursor, size);
+		}
+
+		List<RecordedRound> page = this.selectPage(PAGE_AFTER_SQL, identifier, since, cursor, size + 1);
+
+		return RoundPage.of(page.subList(0, Math.min(size, page.size())), true, page.size() > size);
+	}
+
+	/**
+	 * Rounds a server played since {@code since}, oldest first. Searches that fit
+	 * in the recent rounds window are served from memory, loading the whole
+	 * window on the first one.
+	 */
+	private List<RecordedRound> recordedSince(String identifier, Instant since) throws SQLException {
+		Optional<List<RecordedRound>> recent = this.recentSince(identifier, since);
+
+		return recent.isPresent() ? recent.get() : this.roundsStartedAfter(identifier, since);
+	}
+
+	private Optional<List<RecordedRound>> recentSince(String identifier, Instant since) throws SQLException {
+		Optional<List<RecordedRound>> cached = this.recentRounds.get(identifier, since);
+
+		if (cached.isPresent()) {
+			RECENT_LOOKUPS.increment("hit");
+
+			return cached;
+		}
+
+		Instant windowStart = Instant.now().minus(this.recentRounds.window());
+
+		if (since.isBefore(windowStart)) {
+			RECENT_LOOKUPS.increment("outside_window");
+
+			return Optional.empty();
+		}
+
+		RECENT_LOOKUPS.increment("miss");
+
+		List<RecordedRound> recent = this.roundsStartedAfter(identifier, windowStart);
+
+		this.recentRounds.put(identifier, windowStart, recent);
+
+		// A round saved while the window was being read may be missing from it
+		RecordedRound latest = this.lastRoundByServer.get(identifier);
+
+		if (latest != null && latest.round().startTime().toInstant().isAfter(windowStart)) {
+			this.recentRounds.append(latest);
+		}
+
+		return this.recentRounds.get(identifier, since);
+	}
+
+	private List<RecordedRound> roundsStartedAfter(String identifier, Instant since) throws SQLException {
+		OptionalInt server = this.servers.code(identifier);
+
+		if (server.isEmpty()) {
+			return List.of();
+		}
+
+		long start = System.nanoTime();
+
+		try (var reader = this.connections.reader()) {
+			var statement = reader.statement(ROUNDS_BY_TIMESPAM_SQL);
+
+			statement.setInt(1, server.getAsInt());
+			statement.setLong(2, since.toEpochMilli());
+
+			return this.readRounds(server.getAsInt(), statement);
+		} finally {
+			QUERY_DURATION.observeSince(start, "rounds_since");
 		}
 	}
 
-	private List<Round> lastRounds(Connection connection) throws SQLException {
-		try (var statement = connection.prepareStatement(LAST_ROUNDS_SQL)) {
-			List<Round> rounds = new ArrayList<>();
+	private List<RecordedRound> selectPage(String sql, String identifier, Instant since, PageCursor cursor, int limit)
+			throws SQLException {
+
+		OptionalInt server = this.servers.code(identifier);
+
+		if (server.isEmpty()) {
+			return List.of();
+		}
+
+		long start = System.nanoTime();
+
+		try (var reader = this.connections.reader()) {
+			var statement = reader.statement(sql);
+
+			statement.setInt(1, server.getAsInt());
+			statement.setLong(2, since.toEpochMilli());
+			statement.setLong(3, cursor.startedAt());
+			statement.setLong(4, cursor.id());
+			statement.setInt(5, limit);
+
+			return this.readRounds(server.getAsInt(), statement);
+		} finally {
+			QUERY_DURATION.observeSince(start, "page");
+		}
+	}
+
+	private List<RecordedRound> readRounds(int server, PreparedStatement statement) throws SQLException {
+		String identifier = this.servers.decode(server);
+
+		try (ResultSet results = statement.executeQuery()) {
+			List<RecordedRound> rounds = new ArrayList<>();
+
+			while (results.next()) {
+				rounds.add(new RecordedRound(
+					results.getLong(ID),
+					new Round(
+						identifier,
+						this.maps.decode(results.getInt(MAP)),
+						this.modes.decode(results.getInt(MODE)),
+						this.layers.decode(results.getInt(LAYER)),
+						results.getInt(PLAYERS),
+						ZonedDateTime.parse(results.getString(TIMESTAMP))
+					)
+				));
+			}
+
+			return rounds;
+		}
+	}
 
-			ResultSet resultSet = statement.executeQuery();
+	private List<RecordedRound> lastRounds(SQLiteConnections.Lease lease) throws SQLException {
+		try (ResultSet resultSet = lease.statement(LAST_ROUNDS_SQL).executeQuery()) {
+			List<RecordedRound> rounds = new ArrayList<>();
 
 			while (resultSet.next()) {
-				rounds.add(
+				rounds.add(new RecordedRound(
+						resultSet.getLong(ID),
 						new Round(
-								resultSet.getString(SERVER),
-								Map.fromString(resultSet.getString(MAP)),
-								Mode.fromString(resultSet.getString(MODE)),
-								Layer.fromString(resultSet.getString(LAYER)),
+								this.servers.decode(resultSet.getInt(SERVER)),
+								this.maps.decode(resultSet.getInt(MAP)),
+								this.modes.decode(resultSet.getInt(MODE)),
+								this.layers.decode(resultSet.getInt(LAYER)),
 								resultSet.getInt(PLAYERS),
 								ZonedDateTime.parse(resultSet.getString("latest_timestamp"), DATE_TIME_FORMATTER)
 						)
-				);
+				));
 			}
 
 			return rounds;
 		}
 	}
 
+	/**
+	 * Saves what a poll saw of each server. A round whose level differs from the
+	 * last one recorded for its server is saved as new, ending the previous one.
+	 * Otherwise the player count is added to the open round's peak and average.
+	 * Change detection is done against an in-memory copy of the latest round of
+	 * each server. Returns the new rounds.
+	 */
+	@Override
 	public List<Round> saveAnyNew(List<Round> rounds) throws SQLException {
+		if (rounds.isEmpty()) {
+			return List.of();
+		}
+
+		List<RecordedRound> recorded = new ArrayList<>();
+		java.util.Map<String, RecordedRound> opened = new HashMap<>();
+		long start = System.nanoTime();
 
-		try (var connection = this.dataSource.getConnection()) {
-			List<Round> lastRounds = this.lastRounds(connection);
-			List<Round> savedRounds = new ArrayList<>();
+		try (var writer = this.connections.writer()) {
+			Connection connection = writer.connection();
+			java.util.Map<Round, int[]> codes = this.encode(writer, rounds);
+			var insert = writer.statement(SAVE_ROUNDS_SQL);
+			var sample = writer.statement(SAMPLE_ROUND_SQL);
+			var end = writer.statement(END_ROUND_SQL);
+			var rollup = writer.statement(ROLLUP_ROUNDS_SQL);
+			connection.setAutoCommit(false);
 
-			try (var statement = connection.prepareStatement(SAVE_ROUNDS_SQL)) {
+			try {
 				for (Round round : rounds) {
-					if (!lastRounds.contains(round)) {
-						savedRounds.add(round);
+					RecordedRound open = opened.getOrDefault(round.server(), this.lastRoundByServer.get(round.server()));
+					long startedAt = round.startTime().toInstant().toEpochMilli();
+
+					if (open != null && open.round().equals(round)) {
+						sample.setInt(1, round.players());
+						sample.setInt(2, round.players());
+						sample.setLong(3, open.id());
+						sample.addBatch();
+
+						continue;
+					}
+
+					if (open != null) {
+						end.setLong(1, startedAt);
+						end.setLong(2, open.id());
+						end.addBatch();
+					}
+
+					int[] code = codes.get(round);
+
+					insert.setInt(1, code[0]);
+					insert.setInt(2, code[1]);
+					insert.setInt(3, code[2]);
+					insert.setInt(4, code[3]);
+					insert.setInt(5, round.players());
+					insert.setString(6, round.startTime().format(DATE_TIME_FORMATTER));
+					insert.setLong(7, startedAt);
+					insert.setInt(8, round.players());
+					insert.setInt(9, round.players());
+
+					rollup.setInt(1, code[0]);
+					rollup.setLong(2, rollupDay(startedAt));
+					rollup.setInt(3, code[1]);
+					rollup.setInt(4, code[2]);
+					rollup.setInt(5, code[3]);
+					rollup.setInt(6, 1);
+					rollup.setInt(7, round.players());
+					rollup.addBatch();
 
-						statement.setString(1, round.server());
-						statement.setString(2, round.map().toString());
-						statement.setString(3, round.mode().toString());
-						statement.setString(4, round.layer().toString());
-						statement.setInt(5, round.players());
-						statement.setString(6, round.startTime().format(DATE_TIME_FORMATTER));
+					try (ResultSet id = insert.executeQuery()) {
+						id.next();
+						RecordedRound saved = new RecordedRound(id.getLong(ID), round);
 
-						statement.addBatch();
+						opened.put(round.server(), saved);
+						recorded.add(saved);
 					}
 				}
 
-				statement.executeBatch();
+				sample.executeBatch();
+				end.executeBatch();
+				rollup.executeBatch();
+				connection.commit();
+			} catch (SQLException e) {
+				connection.rollback();
+				throw e;
+			} finally {
+				connection.setAutoCommit(true);
 			}
+		} finally {
+			INSERT_DURATION.observeSince(start);
+		}
+
+		recorded.forEach(round -> {
+			this.lastRoundByServer.put(round.round().server(), round);
+			this.recentRounds.append(round);
+		});
+
+		return recorded.stream().map(RecordedRound::round).toList();
+	}
+
+	/**
+	 * The server, map, mode and layer codes of each round, giving codes to names
+	 * seen for the first time before any transaction starts.
+	 */
+	private java.util.Map<Round, int[]> encode(SQLiteConnections.Lease writer, List<Round> rounds) throws SQLException {
+		java.util.Map<Round, int[]> codes = new HashMap<>();
+
+		for (Round round : rounds) {
+			codes.put(round, new int[] {
+				this.servers.encode(writer, round.server()),
+				this.maps.encode(writer, round.map().toString()),
+				this.modes.encode(writer, round.mode().toString()),
+				this.layers.encode(writer, round.layer().toString())
+			});
+		}
+
+		return codes;
+	}
+
+	/**
+	 * The rounds a server played on each level since the start of {@code since},
+	 * read from the daily rollup alone.
+	 */
+	@Override
+	public List<LevelPlays> playsSince(String identifier, LocalDate since) throws SQLException {
+		OptionalInt server = this.servers.code(identifier);
 
-			return savedRounds;
+		if (server.isEmpty()) {
+			return List.of();
+		}
+
+		long start = System.nanoTime();
+
+		try (var reader = this.connections.reader()) {
+			var statement = reader.statement(PLAYS_SINCE_SQL);
+
+			statement.setInt(1, server.getAsInt());
+			statement.setLong(2, since.toEpochDay());
+
+			try (ResultSet results = statement.executeQuery()) {
+				List<LevelPlays> plays = new ArrayList<>();
+
+				while (results.next()) {
+					plays.add(new LevelPlays(
+						this.maps.decode(results.getInt(MAP)),
+						this.modes.decode(results.getInt(MODE)),
+						this.layers.decode(results.getInt(LAYER)),
+						results.getInt("rounds"),
+						results.getLong(PLAYERS)
+					));
+				}
+
+				return plays;
+			}
+		} finally {
+			QUERY_DURATION.observeSince(start, "plays_since");
 		}
 	}
 
-	public static RoundRepository usingSQLite() throws SQLException {
-		var dataSource = new SQLiteDataSource();
-		dataSource.setUrl("jdbc:sqlite:maps.db");
+	/**
+	 * Hands every round started since {@code since} to {@code sink} in the order
+	 * they were saved, reading {@value #EXPORT_CHUNK} at a time so memory use
+	 * does not grow with how many there are. The reader is given back between
+	 * chunks, so a slow sink never keeps one busy or a read transaction open.
+	 * Returns how many rounds were handed.
+	 */
+	@Override
+	public long exportSince(Instant since, RoundExport.Sink sink) throws SQLException, IOException {
+		long start = System.nanoTime();
+		long lastId = Long.MIN_VALUE;
+		long exported = 0;
+
+		try {
+			while (true) {
+				List<RoundExport.Row> chunk = new ArrayList<>(EXPORT_CHUNK);
 
-		return new RoundRepository(dataSource);	
+				try (var reader = this.connections.reader()) {
+					var statement = reader.statement(EXPORT_SQL);
+
+					statement.setLong(1, lastId);
+					statement.setLong(2, since.toEpochMilli());
+					statement.setInt(3, EXPORT_CHUNK);
+
+					try (ResultSet results = statement.executeQuery()) {
+						while (results.next()) {
+							long endedAt = results.getLong(ENDED_AT);
+							Optional<Instant> ended = results.wasNull() ? Optional.empty() : Optional.of(Instant.ofEpochMilli(endedAt));
+
+							chunk.add(new RoundExport.Row(
+								results.getLong(ID),
+								new Round(
+									this.servers.decode(results.getInt(SERVER)),
+									this.maps.decode(results.getInt(MAP)),
+									this.modes.decode(results.getInt(MODE)),
+									this.layers.decode(results.getInt(LAYER)),
+									results.getInt(PLAYERS),
+									ZonedDateTime.parse(results.getString(TIMESTAMP))
+								),
+								ended,
+								results.getInt(PEAK_PLAYERS),
+								results.getLong(PLAYERS_SUM),
+								results.getInt(SAMPLES)
+							));
+						}
+					}
+				}
+
+				for (RoundExport.Row row : chunk) {
+					sink.accept(row);
+				}
+
+				exported += chunk.size();
+
+				if (chunk.size() < EXPORT_CHUNK) {
+					return exported;
+				}
+
+				lastId = chunk.get(chunk.size() - 1).id();
+			}
+		} finally {
+			QUERY_DURATION.observeSince(start, "export");
+		}
+	}
+
+	/**
+	 * The rounds a server played on a level on one day, as the daily rollup
+	 * counts them.
+	 */
+	record DailyPlays(String server, LocalDate day, LevelPlays plays) {}
+
+	/**
+	 * Hands over every entry of the daily rollup, for moving it elsewhere.
+	 */
+	void exportRollup(Consumer<DailyPlays> sink) throws SQLException {
+		try (var reader = this.connections.reader(); ResultSet results = reader.statement(ALL_ROLLUP_SQL).executeQuery()) {
+			while (results.next()) {
+				sink.accept(new DailyPlays(
+					this.servers.decode(results.getInt(SERVER)),
+					LocalDate.ofEpochDay(results.getLong("day")),
+					new LevelPlays(
+						this.maps.decode(results.getInt(MAP)),
+						this.modes.decode(results.getInt(MODE)),
+						this.layers.decode(results.getInt(LAYER)),
+						results.getInt("rounds"),
+						results.getLong(PLAYERS)
+					)
+				));
+			}
+		}
+	}
+
+	/**
+	 * Every value the bot keeps about itself.
+	 */
+	java.util.Map<String, String> settings() throws SQLException {
+		java.util.Map<String, String> settings = new HashMap<>();
+
+		try (var reader = this.connections.reader(); ResultSet results = reader.statement(ALL_SETTINGS_SQL).executeQuery()) {
+			while (results.next()) {
+				settings.put(results.getString("key"), results.getString("value"));
+			}
+		}
+
+		return settings;
+	}
+
+	/**
+	 * Deletes every finished round that started before {@code cutoff}, a few at a
+	 * time so saving rounds is never held up for long. Their plays stay counted on
+	 * the daily rollup. Returns how many rounds were deleted.
+	 */
+	@Override
+	public long deleteEndedBefore(Instant cutoff) throws SQLException {
+		List<Integer> serverCodes = new ArrayList<>();
+		long deleted = 0;
+
+		try (var reader = this.connections.reader(); ResultSet results = reader.statement(SERVERS_SQL).executeQuery()) {
+			while (results.next()) {
+				serverCodes.add(results.getInt(SERVER));
+			}
+		}
+
+		for (int server : serverCodes) {
+			int batch;
+
+			do {
+				try (var writer = this.connections.writer()) {
+					var statement = writer.statement(DELETE_ENDED_BEFORE_SQL);
+
+					statement.setInt(1, server);
+					statement.setLong(2, cutoff.toEpochMilli());
+					statement.setInt(3, DELETE_BATCH_SIZE);
+
+					batch = statement.executeUpdate();
+				}
+
+				deleted += batch;
+				ROUNDS_DELETED.add(batch);
+			} while (batch == DELETE_BATCH_SIZE);
+		}
+
+		if (deleted > 0) {
+			this.recentRounds.clear();
+		}
+
+		return deleted;
+	}
+
+	/**
+	 * Databases created before incremental vacuum was turned on are rebuilt once
+	 * with a full {@code VACUUM}, which holds the writer until it is done. Only
+	 * done once rounds are deleted, so databases kept without a retention are
+	 * never rebuilt. If the rebuild can't run now, for another process holding
+	 * the database, it is tried again on the next call.
+	 */
+	private static void enableIncrementalVacuum(Connection connection) throws SQLException {
+		if (autoVacuum(connection) == INCREMENTAL_AUTO_VACUUM) {
+			return;
+		}
+
+		Logger.info("Rebuilding the database to turn on incremental vacuum, saves wait for it and this happens only once.");
+
+		try (var statement = connection.createStatement()) {
+			statement.execute(INCREMENTAL_AUTO_VACUUM_SQL);
+			statement.execute("VACUUM;");
+		} catch (SQLException e) {
+			Logger.warn("Could not rebuild the database, space of deleted rounds is reused but not given back: {}", e.toString());
+		}
+	}
+
+	private static int autoVacuum(Connection connection) throws SQLException {
+		try (var statement = connection.createStatement(); ResultSet result = statement.executeQuery(AUTO_VACUUM_SQL)) {
+			return result.next() ? result.getInt(1) : 0;
+		}
+	}
+
+	/**
+	 * Gives the pages freed by deleted rounds back to the file system, a batch of
+	 * pages at a time and at most {@value #MAX_VACUUM_BATCHES} batches per call,
+	 * letting saves through between batches. Databases created before
+	 * incremental vacuum are rebuilt instead, giving all the space back at once.
+	 */
+	@Override
+	public void reclaimSpace() throws SQLException {
+		try (var writer = this.connections.writer()) {
+			if (autoVacuum(writer.connection()) != INCREMENTAL_AUTO_VACUUM) {
+				enableIncrementalVacuum(writer.connection());
+
+				return;
+			}
+		}
+
+		for (int batch = 0; batch < MAX_VACUUM_BATCHES; batch++) {
+			try (var writer = this.connections.writer()) {
+				try (ResultSet result = writer.statement(FREE_PAGES_SQL).executeQuery()) {
+					if (!result.next() || result.getLong(1) == 0) {
+						return;
+					}
+				}
+
+				try (var statement = writer.connection().createStatement()) {
+					statement.execute(INCREMENTAL_VACUUM_SQL);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A value the bot keeps about itself, empty if it was never saved.
+	 */
+	@Override
+	public Optional<String> setting(String key) throws SQLException {
+		try (var reader = this.connections.reader()) {
+			var statement = reader.statement(SETTING_SQL);
+
+			statement.setString(1, key);
+
+			try (ResultSet result = statement.executeQuery()) {
+				return result.next() ? Optional.of(result.getString("value")) : Optional.empty();
+			}
+		}
+	}
+
+	@Override
+	public void saveSetting(String key, String value) throws SQLException {
+		try (var writer = this.connections.writer()) {
+			var statement = writer.statement(SAVE_SETTING_SQL);
+
+			statement.setString(1, key);
+			statement.setString(2, value);
+			statement.executeUpdate();
+		}
+	}
+
+	/**
+	 * The round a server is playing, as far as the last save knows.
+	 */
+	@Override
+	public Optional<Round> currentRound(String identifier) {
+		return Optional.ofNullable(this.lastRoundByServer.get(identifier)).map(RecordedRound::round);
+	}
+
+	/**
+	 * How long rounds on a server usually last, the median length of its latest
+	 * finished rounds. Empty while there is too little history.
+	 */
+	@Override
+	public Optional<Duration> typicalRoundLength(String identifier) throws SQLException {
+		OptionalInt server = this.servers.code(identifier);
+
+		if (server.isEmpty()) {
+			return Optional.empty();
+		}
+
+		long[] lengths = new long[ROUND_LENGTH_SAMPLES];
+		int count = 0;
+		long start = System.nanoTime();
+
+		try (var reader = this.connections.reader()) {
+			var statement = reader.statement(RECENT_LENGTHS_SQL);
+
+			statement.setInt(1, server.getAsInt());
+			statement.setInt(2, ROUND_LENGTH_SAMPLES);
+
+			try (ResultSet results = statement.executeQuery()) {
+				while (results.next()) {
+					lengths[count++] = results.getLong("length");
+				}
+			}
+		} finally {
+			QUERY_DURATION.observeSince(start, "round_lengths");
+		}
+
+		if (count < 2) {
+			return Optional.empty();
+		}
+
+		Arrays.sort(lengths, 0, count);
+
+		return Optional.of(Duration.ofMillis(lengths[count / 2]));
+	}
+
+	@Override
+	public void close() throws SQLException {
+		this.connections.close();
+	}
+
+	/**
+	 * Opens {@code maps.db}, keeping in memory the rounds played within
+	 * {@code recentWindow} of any server that was recently searched.
+	 */
+	public static RoundRepository usingSQLite(Duration recentWindow) throws SQLException {
+		return new RoundRepository(
+			SQLiteConnections.open("jdbc:sqlite:maps.db", READ_CONNECTIONS),
+			new RecentRoundsCache(recentWindow)
+		);
 	}
 
 }
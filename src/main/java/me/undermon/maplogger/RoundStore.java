@@ -0,0 +1,103 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.List;
+import java.util.Optional;
+
+/**
+ * Where rounds are kept. {@link RoundRepository} keeps them on SQLite and
+ * {@link RoundLog} on a memory-mapped file. Failures of either are reported
+ * as {@link SQLException}.
+ */
+public interface RoundStore extends AutoCloseable {
+
+	/**
+	 * The time zone the days of {@link #playsSince} are counted in. Rounds are
+	 * counted on their day as they are saved and stay there, so after the system
+	 * time zone changes the daily rollup has to be built again to match.
+	 */
+	ZoneId ROLLUP_ZONE = ZoneId.systemDefault();
+
+	/**
+	 * Searches the rounds a server played within the given timespan, oldest
+	 * first.
+	 */
+	List<Round> queryByTimespam(String identifier, Duration searchSpam) throws SQLException;
+
+	/**
+	 * Searches the page of at most {@code size} rounds a server played since
+	 * {@code since} that come right before {@code cursor}.
+	 */
+	RoundPage pageBefore(String identifier, Instant since, PageCursor cursor, int size) throws SQLException;
+
+	/**
+	 * Searches the page of at most {@code size} rounds a server played since
+	 * {@code since} that come right after {@code cursor}.
+	 */
+	RoundPage pageAfter(String identifier, Instant since, PageCursor cursor, int size) throws SQLException;
+
+	/**
+	 * Saves what a poll saw of each server. A round whose level differs from the
+	 * last one recorded for its server is saved as new, ending the previous one.
+	 * Otherwise the player count is added to the open round's peak and average.
+	 * Returns the new rounds.
+	 */
+	List<Round> saveAnyNew(List<Round> rounds) throws SQLException;
+
+	/**
+	 * The rounds a server played on each level since the start of {@code since}
+	 * in {@link #ROLLUP_ZONE}, including rounds already deleted by retention.
+	 */
+	List<LevelPlays> playsSince(String identifier, LocalDate since) throws SQLException;
+
+	/**
+	 * Hands every round started since {@code since} to {@code sink} in the order
+	 * they were saved, without holding them all in memory. Returns how many
+	 * rounds were handed.
+	 */
+	long exportSince(Instant since, RoundExport.Sink sink) throws SQLException, IOException;
+
+	/**
+	 * Deletes every finished round that started before {@code cutoff}, keeping
+	 * them counted for {@link #playsSince}. Returns how many were deleted.
+	 */
+	long deleteEndedBefore(Instant cutoff) throws SQLException;
+
+	/**
+	 * Gives the space of deleted rounds back to the file system, possibly only
+	 * part of it, the rest on later calls.
+	 */
+	void reclaimSpace() throws SQLException;
+
+	/**
+	 * A value the bot keeps about itself, empty if it was never saved.
+	 */
+	Optional<String> setting(String key) throws SQLException;
+
+	void saveSetting(String key, String value) throws SQLException;
+
+	/**
+	 * The round a server is playing, as far as the last save knows.
+	 */
+	Optional<Round> currentRound(String identifier);
+
+	/**
+	 * How long rounds on a server usually last, the median length of its latest
+	 * finished rounds. Empty while there is too little history.
+	 */
+	Optional<Duration> typicalRoundLength(String identifier) throws SQLException;
+
+	@Override
+	void close() throws SQLException;
+}
@@ -0,0 +1,234 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.tinylog.Logger;
+
+import me.undermon.maplogger.configuration.TrackedServer;
+import me.undermon.maplogger.metrics.Counter;
+import me.undermon.maplogger.metrics.Metrics;
+
+/**
+ * Saves the rounds seen on each poll on a thread of its own, so polling never
+ * waits on the database. Polls are journaled and queued as they come, then
+ * saved in batches, and a failed save is retried until it goes through. Polls
+ * still on the journal when the bot starts are saved before anything else.
+ * The journal is forced to disk here before each batch is saved rather than
+ * on every poll, so polling never waits on the disk, at the cost of losing the
+ * polls not yet picked up for saving if power is lost.
+ */
+final class RoundWriter implements AutoCloseable {
+	private static final int QUEUE_CAPACITY = 10_000;
+	private static final int MAX_BATCH_POLLS = 64;
+	private static final Duration MIN_RETRY_WAIT = Duration.ofSeconds(1);
+	private static final Duration MAX_RETRY_WAIT = Duration.ofMinutes(1);
+	private static final Duration CLOSE_TIMEOUT = Duration.ofSeconds(10);
+
+	private static final Counter ROUNDS_SAVED = Metrics.counter(
+		"rounds_saved", "Map changes saved."
+	);
+	private static final Counter POLLS_DROPPED = Metrics.counter(
+		"polls_dropped", "Polls not saved because the write queue was full."
+	);
+	private static final Counter SAVE_FAILURES = Metrics.counter(
+		"round_save_failures", "Batches of polls that failed to be saved and were retried."
+	);
+
+	private final RoundJournal journal;
+	private final RoundStore roundRepo;
+	private final ServerDirectory directory;
+	private final BlockingQueue<RoundJournal.Entry> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+	private final Thread thread;
+
+	private volatile boolean closing;
+
+	private RoundWriter(RoundJournal journal, RoundStore roundRepo, ServerDirectory directory) {
+		this.journal = journal;
+		this.roundRepo = roundRepo;
+		this.directory = directory;
+		this.thread = new Thread(this::drain, "RoundWriter");
+		this.thread.setDaemon(true);
+		this.thread.setUncaughtExceptionHandler((thread, e) -> Logger.error(e, "Stopped saving rounds, polls are only journaled from now on."));
+
+		Metrics.gauge("write_queue_length", "Polls waiting to be saved.", this.queue::size);
+	}
+
+	/**
+	 * Opens the journal at {@code path}, saves what it still holds and starts
+	 * saving what is submitted from then on.
+	 */
+	public static RoundWriter start(Path path, RoundStore roundRepo, ServerDirectory directory)
+			throws IOException, SQLException {
+
+		RoundJournal journal = RoundJournal.open(path);
+		RoundWriter writer = new RoundWriter(journal, roundRepo, directory);
+		List<RoundJournal.Entry> pending = journal.pending();
+
+		if (!pending.isEmpty()) {
+			Logger.info("Saving {} polls left on the round journal.", pending.size());
+			writer.save(pending);
+		}
+
+		journal.truncate();
+		writer.thread.start();
+
+		return writer;
+	}
+
+	/**
+	 * Hands the rounds seen on a poll over to be saved, without waiting on the
+	 * database. Dropped with a warning while the queue is full, returns whether
+	 * the rounds were taken.
+	 */
+	public boolean submit(List<Round> rounds) {
+		if (this.closing) {
+			return false;
+		}
+
+		synchronized (this.journal) {
+			if (this.queue.remainingCapacity() == 0) {
+				POLLS_DROPPED.increment();
+				Logger.warn("Dropped a poll, {} are already waiting to be saved.", this.queue.size());
+
+				return false;
+			}
+
+			RoundJournal.Entry entry;
+
+			try {
+				entry = this.journal.append(rounds);
+			} catch (IOException e) {
+				Logger.error("Could not journal a poll, it will be lost if the bot stops before saving it: {}", e.toString());
+				entry = new RoundJournal.Entry(-1, rounds);
+			}
+
+			this.queue.add(entry);
+		}
+
+		return true;
+	}
+
+	private void drain() {
+		List<RoundJournal.Entry> batch = new ArrayList<>(MAX_BATCH_POLLS);
+
+		try {
+			while (!this.closing || !this.queue.isEmpty()) {
+				RoundJournal.Entry first = this.queue.poll(1, TimeUnit.SECONDS);
+
+				if (first == null) {
+					continue;
+				}
+
+				batch.add(first);
+				this.queue.drainTo(batch, MAX_BATCH_POLLS - 1);
+
+				if (!this.saveUntilDone(batch)) {
+					return;
+				}
+
+				batch.clear();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Saves a batch, waiting longer after each failure. Gives up only while
+	 * closing, leaving the batch on the journal for the next start.
+	 */
+	private boolean saveUntilDone(List<RoundJournal.Entry> batch) throws InterruptedException {
+		Duration wait = MIN_RETRY_WAIT;
+
+		while (true) {
+			try {
+				this.save(batch);
+
+				return true;
+			} catch (SQLException | RuntimeException e) {
+				SAVE_FAILURES.increment();
+				Logger.error("Could not save {} polls, retrying in {} seconds: {}", batch.size(), wait.toSeconds(), e.toString());
+
+				if (this.closing) {
+					return false;
+				}
+
+				Thread.sleep(wait.toMillis());
+				wait = wait.multipliedBy(2).compareTo(MAX_RETRY_WAIT) > 0 ? MAX_RETRY_WAIT : wait.multipliedBy(2);
+			}
+		}
+	}
+
+	private void save(List<RoundJournal.Entry> batch) throws SQLException {
+		try {
+			this.journal.force();
+		} catch (IOException e) {
+			Logger.error("Could not force the round journal to disk, its polls may be lost on a power loss: {}", e.toString());
+		}
+
+		List<Round> rounds = batch.stream().flatMap(entry -> entry.rounds().stream()).toList();
+		List<Round> saved = this.roundRepo.saveAnyNew(rounds);
+
+		ROUNDS_SAVED.add(saved.size());
+		saved.forEach(this::logMapChange);
+
+		synchronized (this.journal) {
+			try {
+				if (this.queue.isEmpty()) {
+					this.journal.truncate();
+				} else {
+					this.journal.markSaved(batch.stream().mapToLong(RoundJournal.Entry::sequence).max().getAsLong());
+				}
+			} catch (IOException e) {
+				Logger.error("Could not update the round journal: {}", e.toString());
+			}
+		}
+	}
+
+	private void logMapChange(Round round) {
+		String serverName = this.directory.byId(round.server()).
+			map(TrackedServer::name).
+			orElse(round.server());
+
+		Logger.info("Map change on '{}' to '{}' {} {} with {} players at {}.",
+				serverName,
+				round.map().getFullName(),
+				round.mode().getShortName(),
+				round.layer().getShortName(),
+				round.players(),
+				round.startTime().format(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm z"))
+		);
+	}
+
+	/**
+	 * Stops taking polls and waits a while for the queued ones to be saved.
+	 */
+	@Override
+	public void close() throws IOException {
+		this.closing = true;
+
+		try {
+			this.thread.join(CLOSE_TIMEOUT.toMillis());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			this.thread.interrupt();
+			this.journal.close();
+		}
+	}
+}
@@ -6,76 +6,139 @@
 
 package me.undermon.maplogger;
 
+import java.io.IOException;
+import java.io.InputStream;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
 import java.net.http.HttpResponse.BodyHandlers;
 import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.time.format.FormatStyle;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Objects;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ThreadFactory;
+import java.util.zip.GZIPInputStream;
 
 import org.tinylog.Logger;
 
+import me.undermon.maplogger.ServerInfoReader.ServerEntry;
 import me.undermon.maplogger.configuration.Configuration;
-import me.undermon.maplogger.configuration.TrackedServer;
+import me.undermon.maplogger.configuration.LiveConfiguration;
+import me.undermon.maplogger.metrics.CountingInputStream;
+import me.undermon.maplogger.metrics.Counter;
+import me.undermon.maplogger.metrics.Histogram;
+import me.undermon.maplogger.metrics.Metrics;
+import me.undermon.realityapi.spy.Server;
 import me.undermon.realityapi.spy.Servers;
 
 
-final class RoundsTracker implements Runnable {
+final class RoundsTracker {
 	private static final Duration TIMEOUT = Duration.ofSeconds(60);
 	private static final HttpClient HTTP_CLIENT = HttpClient.newHttpClient();
 
-	private final Configuration config;
-	private final RoundRepository roundRepo;
+	private static final Histogram POLL_DURATION = Metrics.histogram(
+		"poll_duration_seconds", "Time taken by polls of ServerInfo.", Histogram.SECONDS
+	);
+	private static final Histogram REQUEST_DURATION = Metrics.histogram(
+		"serverinfo_request_duration_seconds", "Time until ServerInfo answered.", Histogram.SECONDS
+	);
+	private static final Histogram RESPONSE_SIZE = Metrics.histogram(
+		"serverinfo_response_bytes", "Size of ServerInfo responses as transferred.", Histogram.exponentialBounds(1024, 4, 10)
+	);
+	private static final Counter RESPONSES = Metrics.counter(
+		"serverinfo_responses", "ServerInfo responses by status code.", "status"
+	);
+	private static final Counter FAILURES = Metrics.counter(
+		"poll_failures", "Polls without a usable response, by reason.", "reason"
+	);
+	private static final Counter SERVERS_PARSED = Metrics.counter(
+		"servers_parsed", "Servers parsed again for having changed since the previous response."
+	);
 
-	public RoundsTracker(Configuration config, RoundRepository roundRepo) {
+	private final LiveConfiguration config;
+	private final RoundWriter roundWriter;
+	private final ServerDirectory directory;
+
+	private String entityTag;
+	private String lastModified;
+	private Configuration parsedWith;
+	private volatile java.util.Map<String, ServerState> servers = new LinkedHashMap<>();
+	private List<Round> lastRounds = List.of();
+
+	/**
+	 * A tracked server as the last response had it, with the round parsed from it.
+	 */
+	private record ServerState(byte[] fingerprint, Round round) {}
+
+	public RoundsTracker(LiveConfiguration config, RoundWriter roundWriter, ServerDirectory directory) {
 		this.config = config;
-		this.roundRepo = roundRepo;
+		this.roundWriter = roundWriter;
+		this.directory = directory;
+
+		Metrics.gauge("tracked_servers", "Tracked servers on the last ServerInfo response.", () -> this.servers.size());
 	}
 
-	@Override
-	public void run() {
+	/**
+	 * Fetches ServerInfo once and hands what it saw of the tracked servers over
+	 * to be saved.
+	 * When the API answers that nothing changed the rounds of the previous poll
+	 * are reported again.
+	 */
+	public PollOutcome poll() {
+		long start = System.nanoTime();
+
 		try {
-			var request = HttpRequest.newBuilder().uri(this.config.serverInfoAPI()).GET().timeout(TIMEOUT).build();
-			var response = HTTP_CLIENT.send(request, BodyHandlers.ofString());
-
-			if (response.statusCode() == 200) {
-				final List<Round> rounds = Servers.from(response.body()).
-					stream().
-					filter(server -> config.stream().map(TrackedServer::id).toList().contains(server.identifier())).
-					map(Round::from).
-					toList();
-					
-					List<Round> saveRounds = this.roundRepo.saveAnyNew(rounds);
-
-					saveRounds.forEach(round -> {
-
-						String serverName = this.config.stream().
-							filter(trackedServer -> trackedServer.id().equals(round.server())).
-							findFirst().
-							map(TrackedServer::name).
-							orElse(round.server());
-
-
-						Logger.info("Map change on '{}' to '{}' {} {} with {} players at {}.", 
-								serverName,
-								round.map().getFullName(),
-								round.mode().getShortName(),
-								round.layer().getShortName(),
-								round.players(),
-								round.startTime().format(DateTimeFormatter.ofPattern("yyyy/MM/dd HH:mm z"))
-						);
-					});
+			return this.fetch();
+		} finally {
+			POLL_DURATION.observeSince(start);
+		}
+	}
 
-			} else {
-				Logger.warn("Response code from PRSPY is {}.", response.statusCode());
+	private PollOutcome fetch() {
+		Configuration config = this.config.current();
+
+		try {
+			long start = System.nanoTime();
+			var response = HTTP_CLIENT.send(this.request(config), BodyHandlers.ofInputStream());
+
+			REQUEST_DURATION.observeSince(start);
+			RESPONSES.increment(Integer.toString(response.statusCode()));
+
+			CountingInputStream transferred = new CountingInputStream(response.body());
+
+			try (InputStream body = decompressed(response, transferred)) {
+				if (response.statusCode() == 200) {
+					this.lastRounds = this.parse(body, config);
+					this.parsedWith = config;
+					RESPONSE_SIZE.observe(transferred.count());
+				} else if (response.statusCode() != 304) {
+					Logger.warn("Response code from PRSPY is {}.", response.statusCode());
+					FAILURES.increment("status");
+
+					return PollOutcome.failure();
+				}
+			}
+
+			// Validators are only remembered once the rounds were handed over, a
+			// poll that failed before that gets the whole response again
+			if (this.track(this.lastRounds) && response.statusCode() == 200) {
+				this.entityTag = response.headers().firstValue("ETag").orElse(null);
+				this.lastModified = response.headers().firstValue("Last-Modified").orElse(null);
 			}
 
+			return new PollOutcome(false, this.lastRounds);
 		} catch (HttpTimeoutException e) {
+			FAILURES.increment("timeout");
 			Logger.warn( 
 				"Timed out fetching %s after %s seconds at %s.".formatted(
 					config.serverInfoAPI(),
@@ -86,8 +149,106 @@ final class RoundsTracker implements Runnable {
 		} catch (ThreadDeath e) { 
 			throw e;
 		} catch (Exception e) {
+			FAILURES.increment("error");
 			Logger.error(e);
 		}
+
+		return PollOutcome.failure();
+	}
+
+	/**
+	 * A GET for ServerInfo that accepts gzip and, once the API has handed out
+	 * validators, asks to be answered with 304 if nothing changed since. After
+	 * the configuration changed the full response is asked for again, since
+	 * other servers may be tracked now.
+	 */
+	private HttpRequest request(Configuration config) {
+		var builder = HttpRequest.newBuilder().
+			uri(config.serverInfoAPI()).
+			header("Accept-Encoding", "gzip").
+			GET().
+			timeout(TIMEOUT);
+
+		if (config != this.parsedWith) {
+			return builder.build();
+		}
+
+		if (this.entityTag != null) {
+			builder.header("If-None-Match", this.entityTag);
+		}
+
+		if (this.lastModified != null) {
+			builder.header("If-Modified-Since", this.lastModified);
+		}
+
+		return builder.build();
+	}
+
+	private static InputStream decompressed(HttpResponse<InputStream> response, InputStream body) throws IOException {
+		boolean gzipped = response.headers().
+			firstValue("Content-Encoding").
+			map(encoding -> encoding.equalsIgnoreCase("gzip")).
+			orElse(false);
+
+		return gzipped ? new GZIPInputStream(body) : body;
+	}
+
+	/**
+	 * The rounds of the tracked servers on a ServerInfo response. Each server is
+	 * compared with how the previous response had it and only those that changed
+	 * are parsed again, so polls stay cheap however many servers are tracked.
+	 */
+	private List<Round> parse(InputStream serverInfo, Configuration config) throws IOException {
+		List<ServerEntry> entries = ServerInfoReader.servers(serverInfo, config::isTracked);
+		java.util.Map<String, ServerState> current = new LinkedHashMap<>();
+		List<ServerEntry> changed = new ArrayList<>();
+
+		for (ServerEntry entry : entries) {
+			byte[] fingerprint = fingerprint(entry.json());
+			ServerState previous = this.servers.get(entry.identifier());
+
+			if (previous != null && Arrays.equals(previous.fingerprint(), fingerprint)) {
+				current.put(entry.identifier(), previous);
+			} else {
+				current.put(entry.identifier(), new ServerState(fingerprint, null));
+				changed.add(entry);
+			}
+		}
+
+		if (!changed.isEmpty()) {
+			for (Server server : Servers.from(ServerInfoReader.document(changed))) {
+				current.computeIfPresent(server.identifier(), (id, state) -> new ServerState(state.fingerprint(), Round.from(server)));
+			}
+
+			for (ServerEntry entry : changed) {
+				ServerInfoReader.hostname(entry).ifPresent(name -> this.directory.update(entry.identifier(), name));
+			}
+		}
+
+		SERVERS_PARSED.add(changed.size());
+		this.servers = current;
+
+		return current.values().stream().
+			map(ServerState::round).
+			filter(Objects::nonNull).
+			toList();
+	}
+
+	/**
+	 * Saves what this poll saw of every tracked server, it counts towards the
+	 * player statistics of the open rounds even when nothing changed. Returns
+	 * whether they were taken to be saved.
+	 */
+	private boolean track(List<Round> rounds) {
+		return this.roundWriter.submit(rounds);
+	}
+
+	private static byte[] fingerprint(String server) {
+		try {
+			return MessageDigest.getInstance("SHA-256").digest(server.getBytes(StandardCharsets.UTF_8));
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
 	}
 
 	public static ThreadFactory threadFactory() {
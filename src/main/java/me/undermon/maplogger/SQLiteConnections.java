@@ -0,0 +1,191 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+
+import org.sqlite.SQLiteConfig;
+import org.sqlite.SQLiteConfig.JournalMode;
+import org.sqlite.SQLiteConfig.Pragma;
+import org.sqlite.SQLiteConfig.SynchronousMode;
+import org.sqlite.SQLiteDataSource;
+
+import me.undermon.maplogger.metrics.Metrics;
+
+/**
+ * Owns the connections to a SQLite database in WAL mode: a single writer,
+ * handed out one caller at a time, and a bounded pool of read-only connections.
+ * Under WAL readers never wait on the writer, so queries from slash commands
+ * are not held up by the tracker saving rounds.
+ */
+final class SQLiteConnections implements AutoCloseable {
+	private static final int CACHE_SIZE_KIB = -8192;
+	private static final long MMAP_SIZE_BYTES = 64L * 1024 * 1024;
+	private static final int BUSY_TIMEOUT_MILLIS = 5000;
+	private static final long READER_WAIT_SECONDS = 10;
+	private static final String INCREMENTAL_AUTO_VACUUM_SQL = "PRAGMA auto_vacuum = INCREMENTAL;";
+	private static final String WAL_SQL = "PRAGMA journal_mode = WAL;";
+
+	private final Lease writer;
+	private final ReentrantLock writerLock = new ReentrantLock(true);
+	private final BlockingQueue<Lease> readers;
+	private final List<Lease> allReaders = new ArrayList<>();
+
+	private SQLiteConnections(String url, int readerCount) throws SQLException {
+		this.writer = new Lease(open(url, false), this::releaseWriter);
+		this.readers = new ArrayBlockingQueue<>(readerCount);
+
+		for (int i = 0; i < readerCount; i++) {
+			this.allReaders.add(new Lease(open(url, true), this::releaseReader));
+		}
+
+		this.readers.addAll(this.allReaders);
+
+		Metrics.gauge("db_readers_in_use", "Read connections on loan.", () -> readerCount - this.readers.size());
+		Metrics.gauge("db_writer_waiting", "Callers waiting for the writer connection.", this.writerLock::getQueueLength);
+	}
+
+	public static SQLiteConnections open(String url, int readerCount) throws SQLException {
+		return new SQLiteConnections(url, readerCount);
+	}
+
+	/**
+	 * Opens a connection. The writer opens first and turns on WAL itself, right
+	 * after incremental vacuum: once WAL writes the header of a new database its
+	 * vacuum mode can no longer change without a full {@code VACUUM}.
+	 */
+	private static Connection open(String url, boolean readOnly) throws SQLException {
+		SQLiteConfig config = new SQLiteConfig();
+
+		if (readOnly) {
+			config.setJournalMode(JournalMode.WAL);
+		}
+
+		config.setSynchronous(SynchronousMode.NORMAL);
+		config.setCacheSize(CACHE_SIZE_KIB);
+		config.setPragma(Pragma.MMAP_SIZE, Long.toString(MMAP_SIZE_BYTES));
+		config.setBusyTimeout(BUSY_TIMEOUT_MILLIS);
+		config.setReadOnly(readOnly);
+
+		SQLiteDataSource dataSource = new SQLiteDataSource(config);
+		dataSource.setUrl(url);
+
+		Connection connection = dataSource.getConnection();
+
+		if (!readOnly) {
+			try (var statement = connection.createStatement()) {
+				// Only takes effect on new databases, older ones are rebuilt by RoundRepository
+				statement.execute(INCREMENTAL_AUTO_VACUUM_SQL);
+				statement.execute(WAL_SQL);
+			} catch (SQLException e) {
+				connection.close();
+
+				throw e;
+			}
+		}
+
+		return connection;
+	}
+
+	/**
+	 * Waits until no one else is writing and hands out the writer connection,
+	 * closing the returned lease gives it back.
+	 */
+	public Lease writer() {
+		this.writerLock.lock();
+
+		return this.writer;
+	}
+
+	/**
+	 * Borrows one of the read-only connections, closing the returned lease gives
+	 * it back to the pool.
+	 */
+	public Lease reader() throws SQLException {
+		try {
+			Lease reader = this.readers.poll(READER_WAIT_SECONDS, TimeUnit.SECONDS);
+
+			if (reader == null) {
+				throw new SQLException("No read connection became available in %s seconds.".formatted(READER_WAIT_SECONDS));
+			}
+
+			return reader;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+
+			throw new SQLException("Interrupted while waiting for a read connection.", e);
+		}
+	}
+
+	private void releaseWriter(Lease lease) {
+		this.writerLock.unlock();
+	}
+
+	private void releaseReader(Lease lease) {
+		this.readers.add(lease);
+	}
+
+	/**
+	 * Closes the readers first, including those still on loan, the last
+	 * connection to close checkpoints the WAL back into the database and only
+	 * the writer is allowed to.
+	 */
+	@Override
+	public void close() throws SQLException {
+		for (Lease reader : this.allReaders) {
+			reader.connection().close();
+		}
+
+		this.writer.connection().close();
+	}
+
+	/**
+	 * A connection on loan from {@link SQLiteConnections}, keeping the prepared
+	 * statements of every SQL it has run so they are compiled only once.
+	 */
+	public static final class Lease implements AutoCloseable {
+		private final Connection connection;
+		private final Map<String, PreparedStatement> statements = new HashMap<>();
+		private final Consumer<Lease> release;
+
+		private Lease(Connection connection, Consumer<Lease> release) {
+			this.connection = connection;
+			this.release = release;
+		}
+
+		public Connection connection() {
+			return this.connection;
+		}
+
+		public PreparedStatement statement(String sql) throws SQLException {
+			PreparedStatement statement = this.statements.get(sql);
+
+			if (statement == null) {
+				statement = this.connection.prepareStatement(sql);
+				this.statements.put(sql, statement);
+			}
+
+			return statement;
+		}
+
+		@Override
+		public void close() {
+			this.release.accept(this);
+		}
+	}
+}
@@ -0,0 +1,140 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.undermon.maplogger.configuration.Configuration;
+import me.undermon.maplogger.configuration.LiveConfiguration;
+import me.undermon.maplogger.configuration.TrackedServer;
+
+/**
+ * Every server commands can be asked about: the ones on the configuration,
+ * under the names given there, and every other server polls have seen since
+ * the bot started, under the name it goes by on the master list.
+ */
+public final class ServerDirectory {
+	private static final Duration POPULARITY_HALF_LIFE = Duration.ofDays(7);
+
+	private final LiveConfiguration config;
+	private final Map<String, TrackedServer> seen = new ConcurrentHashMap<>();
+	private final Map<String, Popularity> popularity = new ConcurrentHashMap<>();
+
+	private final AtomicLong changes = new AtomicLong();
+
+	private volatile Sorted sorted;
+
+	/**
+	 * The servers as sorted after a number of changes. A list built while a
+	 * change came in is kept under the count from before it, so it is built
+	 * again on the next call instead of hiding the change.
+	 */
+	private record Sorted(long changes, List<TrackedServer> servers) {}
+
+	/**
+	 * How often a server was asked about, each time counting half as much a
+	 * half-life later.
+	 */
+	private record Popularity(double score, long atMillis) {
+
+		Popularity at(long millis) {
+			double halfLives = (double) (millis - this.atMillis) / POPULARITY_HALF_LIFE.toMillis();
+
+			return new Popularity(this.score * Math.pow(0.5, halfLives), millis);
+		}
+	}
+
+	public ServerDirectory(LiveConfiguration config) {
+		this.config = config;
+		this.sorted = new Sorted(0, config.current().stream().toList());
+
+		config.onChange(changed -> this.changes.incrementAndGet());
+	}
+
+	/**
+	 * Records the name a server goes by on the master list.
+	 */
+	void update(String id, String name) {
+		if (this.config.current().serverById(id).isPresent()) {
+			return;
+		}
+
+		TrackedServer server = new TrackedServer(name, id);
+
+		if (!server.equals(this.seen.put(id, server))) {
+			this.changes.incrementAndGet();
+		}
+	}
+
+	public Optional<TrackedServer> byId(String id) {
+		return this.config.current().serverById(id).or(() -> Optional.ofNullable(this.seen.get(id)));
+	}
+
+	public Optional<TrackedServer> byName(String name) {
+		Configuration config = this.config.current();
+
+		return config.serverByName(name).or(() -> this.seen.values().stream().
+			filter(server -> config.serverById(server.id()).isEmpty()).
+			filter(server -> server.name().equalsIgnoreCase(name)).
+			findFirst());
+	}
+
+	/**
+	 * Counts a command asking about a server towards its popularity.
+	 */
+	public void queried(String id) {
+		long now = System.currentTimeMillis();
+
+		this.popularity.merge(id, new Popularity(1, now), (old, once) -> new Popularity(old.at(now).score() + 1, now));
+	}
+
+	public double popularity(String id) {
+		Popularity recorded = this.popularity.get(id);
+
+		return recorded == null ? 0 : recorded.at(System.currentTimeMillis()).score();
+	}
+
+	public TrackedServer primary() {
+		return this.config.current().primaryTrackedServer();
+	}
+
+	/**
+	 * The servers on the configuration in their order, then every other one
+	 * seen sorted by name.
+	 */
+	public List<TrackedServer> servers() {
+		long changes = this.changes.get();
+		Sorted cached = this.sorted;
+
+		if (cached.changes() == changes) {
+			return cached.servers();
+		}
+
+		Configuration config = this.config.current();
+		List<TrackedServer> others = new ArrayList<>(this.seen.values());
+
+		// Servers seen before being added to the configuration go by their configured name
+		others.removeIf(server -> config.serverById(server.id()).isPresent());
+		others.sort(Comparator.comparing(server -> server.name().toLowerCase(Locale.ROOT)));
+
+		List<TrackedServer> servers = new ArrayList<>(config.stream().toList());
+
+		servers.addAll(others);
+		servers = List.copyOf(servers);
+		this.sorted = new Sorted(changes, servers);
+
+		return servers;
+	}
+}
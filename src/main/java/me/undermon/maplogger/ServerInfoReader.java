@@ -0,0 +1,173 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Optional;
+import java.util.StringJoiner;
+import java.util.function.Predicate;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+/**
+ * Reads a ServerInfo response token by token, keeping only the server objects
+ * whose identifier is accepted. Everything else on the master list is skipped
+ * without being materialized, so only the tracked servers ever reach
+ * {@link me.undermon.realityapi.spy.Servers#from(String)}.
+ */
+final class ServerInfoReader {
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+	private static final String SERVERS_FIELD = "servers";
+	private static final String IDENTIFIER_FIELD = "serverId";
+	private static final String PROPERTIES_FIELD = "properties";
+	private static final String HOSTNAME_FIELD = "hostname";
+
+	/**
+	 * One server object of a ServerInfo response, as JSON text.
+	 */
+	record ServerEntry(String identifier, String json) {}
+
+	private ServerInfoReader() {
+		// Do nothing
+	}
+
+	/**
+	 * Returns a ServerInfo document holding only the servers whose identifier
+	 * passes {@code isTracked}, in the order they appear on the response.
+	 */
+	public static String filter(InputStream serverInfo, Predicate<String> isTracked) throws IOException {
+		return document(servers(serverInfo, isTracked));
+	}
+
+	/**
+	 * The servers on a ServerInfo response whose identifier passes
+	 * {@code isTracked}, each kept apart as the JSON text of its object.
+	 */
+	public static List<ServerEntry> servers(InputStream serverInfo, Predicate<String> isTracked) throws IOException {
+		List<ServerEntry> servers = new ArrayList<>();
+
+		try (JsonParser parser = JSON_FACTORY.createParser(serverInfo)) {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new IOException("ServerInfo response is not a JSON object.");
+			}
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+
+				if (field.equals(SERVERS_FIELD) && value == JsonToken.START_ARRAY) {
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						copyIfTracked(parser, isTracked).ifPresent(servers::add);
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+
+		return servers;
+	}
+
+	/**
+	 * A ServerInfo document holding only the given servers, in their order.
+	 */
+	public static String document(Collection<ServerEntry> servers) {
+		StringJoiner document = new StringJoiner(",", "{\"%s\":[".formatted(SERVERS_FIELD), "]}");
+
+		servers.forEach(server -> document.add(server.json()));
+
+		return document.toString();
+	}
+
+	/**
+	 * The name a server goes by, found on its properties.
+	 */
+	public static Optional<String> hostname(ServerEntry server) throws IOException {
+		try (JsonParser parser = JSON_FACTORY.createParser(server.json())) {
+			parser.nextToken();
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				JsonToken value = parser.nextToken();
+
+				if (!field.equals(PROPERTIES_FIELD) || value != JsonToken.START_OBJECT) {
+					parser.skipChildren();
+					continue;
+				}
+
+				while (parser.nextToken() == JsonToken.FIELD_NAME) {
+					String property = parser.getCurrentName();
+					parser.nextToken();
+
+					if (property.equals(HOSTNAME_FIELD) && parser.currentToken().isScalarValue()) {
+						return Optional.of(parser.getText().strip()).filter(name -> !name.isEmpty());
+					}
+
+					parser.skipChildren();
+				}
+			}
+		}
+
+		return Optional.empty();
+	}
+
+	/**
+	 * Consumes one server object, the parser positioned on its start. Fields are
+	 * buffered only until the identifier shows up, from there on the object is
+	 * either skipped or copied straight through.
+	 */
+	private static Optional<ServerEntry> copyIfTracked(JsonParser parser, Predicate<String> isTracked)
+			throws IOException {
+
+		StringWriter server = new StringWriter();
+		String identifier = null;
+		Boolean tracked = null;
+
+		try (JsonGenerator serverGenerator = JSON_FACTORY.createGenerator(server)) {
+			serverGenerator.writeStartObject();
+
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				String field = parser.getCurrentName();
+				parser.nextToken();
+
+				if (tracked == null && field.equals(IDENTIFIER_FIELD)) {
+					identifier = parser.getText();
+					tracked = isTracked.test(identifier);
+				}
+
+				if (Boolean.FALSE.equals(tracked)) {
+					skipRestOfObject(parser);
+					return Optional.empty();
+				}
+
+				serverGenerator.writeFieldName(field);
+				serverGenerator.copyCurrentStructure(parser);
+			}
+
+			serverGenerator.writeEndObject();
+		}
+
+		return Boolean.TRUE.equals(tracked) ? Optional.of(new ServerEntry(identifier, server.toString())) : Optional.empty();
+	}
+
+	private static void skipRestOfObject(JsonParser parser) throws IOException {
+		parser.skipChildren();
+
+		while (parser.nextToken() == JsonToken.FIELD_NAME) {
+			parser.nextToken();
+			parser.skipChildren();
+		}
+	}
+}
@@ -15,19 +15,36 @@ import java.time.Duration;
 import java.time.ZoneId;
 import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.OptionalInt;
 import java.util.Properties;
+import java.util.Set;
+import java.util.function.Function;
 import java.util.stream.Stream;
 import java.util.stream.StreamSupport;
 
 public final class Configuration implements Iterable<TrackedServer>{
 
-	private static final String FILE_NAME = "maptracker.properties";
+	static final String FILE_NAME = "maptracker.properties";
+	private static final Duration DEFAULT_MIN_FETCH_INTERVAL = Duration.ofMinutes(1);
+	private static final Duration DEFAULT_MAX_FETCH_INTERVAL = Duration.ofMinutes(30);
 
 	private String token;
 	private Duration fetchInterval;
+	private Duration minFetchInterval;
+	private Duration maxFetchInterval;
+	private OptionalInt metricsPort;
+	private Optional<Duration> retention;
+	private boolean trackAll;
+	private Storage storage;
 	private List<TrackedServer> servers;
+	private Map<String, TrackedServer> serversById;
+	private Map<String, TrackedServer> serversByName;
 	private URI realityAPI;
 	private ChronoUnit defaulUnit;
 	private int defaultTimespan;
@@ -43,10 +60,21 @@ public final class Configuration implements Iterable<TrackedServer>{
 
 			this.token = this.parseToken(properties);
 			this.fetchInterval = this.parseFetchInterval(properties);
+			this.minFetchInterval = this.parseOptionalInterval(properties, "minFetchInterval", DEFAULT_MIN_FETCH_INTERVAL);
+			this.maxFetchInterval = this.parseOptionalInterval(
+				properties, "maxFetchInterval", max(DEFAULT_MAX_FETCH_INTERVAL, this.fetchInterval)
+			);
+			this.checkFetchIntervals();
+			this.metricsPort = this.parseMetricsPort(properties);
+			this.retention = this.parseRetention(properties);
 			this.realityAPI = this.parsePRSpyURL(properties);
 			this.defaultTimespan = this.parseDefaultTimespan(properties);
 			this.defaulUnit = this.parseDefaultUnit(properties);
 			this.servers = this.parseTrackedServers(properties);
+			this.trackAll = Boolean.parseBoolean(properties.getProperty("trackAll", "false").strip());
+			this.storage = this.parseStorage(properties);
+			this.serversById = this.indexServers(TrackedServer::id);
+			this.serversByName = this.indexServers(server -> server.name().toLowerCase(Locale.ROOT));
 
 		} catch (FileNotFoundException e) {
 			throw new ConfigurationFileException("No configuration file found.");
@@ -95,7 +123,19 @@ public final class Configuration implements Iterable<TrackedServer>{
 			trackedServers.add(new TrackedServer(serverNames[i].replace("_", " "), serverIds[i]));
 		}
 
-		return trackedServers;
+		return List.copyOf(trackedServers);
+	}
+
+	private Map<String, TrackedServer> indexServers(Function<TrackedServer, String> key) {
+		Map<String, TrackedServer> index = new HashMap<>();
+
+		for (TrackedServer server : this.servers) {
+			if (index.put(key.apply(server), server) != null) {
+				throw new ConfigurationFileException("Server names and ids must be unique.");
+			}
+		}
+
+		return Map.copyOf(index);
 	}
 
 	private Duration parseFetchInterval(Properties properties) throws ConfigurationFileException{
@@ -108,6 +148,97 @@ public final class Configuration implements Iterable<TrackedServer>{
 		}
 	}
 
+	private Duration parseOptionalInterval(Properties properties, String key, Duration fallback) {
+		String value = properties.getProperty(key);
+
+		if (value == null || value.isBlank()) {
+			return fallback;
+		}
+
+		try {
+			return Duration.ofMinutes(Integer.parseInt(value.strip()));
+		} catch (NumberFormatException e) {
+			throw new ConfigurationFileException("%s is not a number.".formatted(key));
+		}
+	}
+
+	private static Duration max(Duration first, Duration second) {
+		return first.compareTo(second) >= 0 ? first : second;
+	}
+
+	/**
+	 * Files written before the bounds existed keep loading: the default maximum
+	 * grows to their fetch interval and a fetch interval of zero polls at the
+	 * minimum.
+	 */
+	private void checkFetchIntervals() {
+		if (this.minFetchInterval.isNegative() || this.minFetchInterval.isZero()) {
+			throw new ConfigurationFileException("Minimum fetch interval must be positive.");
+		}
+
+		if (this.fetchInterval.isZero()) {
+			this.fetchInterval = this.minFetchInterval;
+		}
+
+		if (this.fetchInterval.compareTo(this.minFetchInterval) < 0 || this.fetchInterval.compareTo(this.maxFetchInterval) > 0) {
+			throw new ConfigurationFileException("Fetch interval must be between the minimum and maximum fetch intervals.");
+		}
+	}
+
+	private OptionalInt parseMetricsPort(Properties properties) {
+		String value = properties.getProperty("metricsPort");
+
+		if (value == null || value.isBlank()) {
+			return OptionalInt.empty();
+		}
+
+		try {
+			int port = Integer.parseInt(value.strip());
+
+			if (port < 1 || port > 65535) {
+				throw new ConfigurationFileException("Metrics port must be between 1 and 65535.");
+			}
+
+			return OptionalInt.of(port);
+		} catch (NumberFormatException e) {
+			throw new ConfigurationFileException("Metrics port is not a number.");
+		}
+	}
+
+	private Optional<Duration> parseRetention(Properties properties) {
+		String value = properties.getProperty("retentionDays");
+
+		if (value == null || value.isBlank()) {
+			return Optional.empty();
+		}
+
+		try {
+			int days = Integer.parseInt(value.strip());
+
+			if (days < 1) {
+				throw new ConfigurationFileException("Retention must be at least one day.");
+			}
+
+			return Optional.of(Duration.ofDays(days));
+		} catch (NumberFormatException e) {
+			throw new ConfigurationFileException("Retention days is not a number.");
+		}
+	}
+
+	private Storage parseStorage(Properties properties) {
+		String value = properties.getProperty("storage");
+
+		if (value == null || value.isBlank()) {
+			return Storage.SQLITE;
+		}
+
+		try {
+			return Storage.valueOf(value.strip().toUpperCase(Locale.ROOT));
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationFileException("Storage must be 'sqlite' or 'log'.");
+		}
+	}
+
 	private String parseToken(Properties properties) throws ConfigurationFileException {
 		String parsedToken = properties.getProperty("token").strip();
 
@@ -138,6 +269,35 @@ public final class Configuration implements Iterable<TrackedServer>{
 		return this.fetchInterval;
 	}
 
+	/**
+	 * The shortest wait between polls, used while a round is about to end.
+	 */
+	public Duration minFetchInterval() {
+		return this.minFetchInterval;
+	}
+
+	/**
+	 * The longest wait between polls, reached while every tracked server is
+	 * empty or the API keeps failing.
+	 */
+	public Duration maxFetchInterval() {
+		return this.maxFetchInterval;
+	}
+
+	/**
+	 * Port of the local metrics endpoint, absent when it is turned off.
+	 */
+	public OptionalInt metricsPort() {
+		return this.metricsPort;
+	}
+
+	/**
+	 * How long rounds are kept in full, absent when they are kept forever.
+	 */
+	public Optional<Duration> retention() {
+		return this.retention;
+	}
+
 	public ChronoUnit defaulUnit() {
 		return defaulUnit;
 	}
@@ -150,6 +310,37 @@ public final class Configuration implements Iterable<TrackedServer>{
 		return this.servers.get(0);
 	}
 
+	public Optional<TrackedServer> serverById(String id) {
+		return Optional.ofNullable(this.serversById.get(id));
+	}
+
+	public Optional<TrackedServer> serverByName(String name) {
+		return Optional.ofNullable(this.serversByName.get(name.toLowerCase(Locale.ROOT)));
+	}
+
+	public Set<String> trackedIds() {
+		return this.serversById.keySet();
+	}
+
+	/**
+	 * Whether rounds are recorded for every server on the master list instead
+	 * of only the configured ones.
+	 */
+	public boolean trackAll() {
+		return this.trackAll;
+	}
+
+	/**
+	 * Where rounds are kept, {@code maps.db} by default.
+	 */
+	public Storage storage() {
+		return this.storage;
+	}
+
+	public boolean isTracked(String id) {
+		return this.trackAll || this.serversById.containsKey(id);
+	}
+
 	public Stream<TrackedServer> stream() {
 		return StreamSupport.stream(this.spliterator(), false);
 	}
@@ -0,0 +1,150 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.configuration;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import org.tinylog.Logger;
+
+/**
+ * The configuration as it currently is on disk. The file is watched and read
+ * again whenever it changes: a valid file replaces the configuration everyone
+ * reads from then on, an invalid one is reported and the previous
+ * configuration is kept.
+ */
+public final class LiveConfiguration {
+	private static final Duration SETTLE_TIME = Duration.ofMillis(500);
+
+	private final List<Consumer<Configuration>> listeners = new CopyOnWriteArrayList<>();
+
+	private volatile Configuration current;
+
+	private LiveConfiguration(Configuration initial) {
+		this.current = initial;
+	}
+
+	/**
+	 * Reads the configuration file, failing like {@link Configuration#readFromDisk()}
+	 * if it is invalid.
+	 */
+	public static LiveConfiguration readFromDisk() {
+		return new LiveConfiguration(Configuration.readFromDisk());
+	}
+
+	/**
+	 * The configuration to use now. Callers needing several values that must
+	 * agree with each other should read them all from one call.
+	 */
+	public Configuration current() {
+		return this.current;
+	}
+
+	/**
+	 * Calls {@code listener} with each configuration read after a change.
+	 */
+	public void onChange(Consumer<Configuration> listener) {
+		this.listeners.add(listener);
+	}
+
+	/**
+	 * Starts watching the configuration file on a thread of its own.
+	 */
+	public void watch() throws IOException {
+		Path file = Path.of(Configuration.FILE_NAME).toAbsolutePath();
+		WatchService watcher = FileSystems.getDefault().newWatchService();
+
+		file.getParent().register(
+			watcher,
+			StandardWatchEventKinds.ENTRY_CREATE,
+			StandardWatchEventKinds.ENTRY_MODIFY
+		);
+
+		Thread thread = new Thread(() -> this.watchLoop(watcher, file.getFileName()), "ConfigurationWatcher");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	private void watchLoop(WatchService watcher, Path fileName) {
+		try (watcher) {
+			while (true) {
+				WatchKey key = watcher.take();
+				boolean changed = touches(key, fileName);
+
+				// Editors write a file in several steps, wait for them to settle
+				for (WatchKey next; (next = watcher.poll(SETTLE_TIME.toMillis(), TimeUnit.MILLISECONDS)) != null;) {
+					changed |= touches(next, fileName);
+				}
+
+				if (changed) {
+					this.reload();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (IOException e) {
+			Logger.error("Stopped watching the configuration file: {}", e.toString());
+		}
+	}
+
+	private static boolean touches(WatchKey key, Path fileName) {
+		boolean touched = false;
+
+		for (WatchEvent<?> event : key.pollEvents()) {
+			touched |= fileName.equals(event.context());
+		}
+
+		key.reset();
+
+		return touched;
+	}
+
+	/**
+	 * Reads the file again, keeping the current configuration if it is invalid.
+	 */
+	public void reload() {
+		Configuration previous = this.current;
+		Configuration reloaded;
+
+		try {
+			reloaded = Configuration.readFromDisk();
+		} catch (RuntimeException e) {
+			Logger.warn("Configuration file changed but is invalid, keeping the previous one: {}", e.getMessage());
+
+			return;
+		}
+
+		if (
+			!reloaded.token().equals(previous.token()) ||
+			!reloaded.metricsPort().equals(previous.metricsPort()) ||
+			reloaded.storage() != previous.storage()
+		) {
+			Logger.warn("The token, metrics port and storage only change after a restart.");
+		}
+
+		this.current = reloaded;
+		Logger.info("Configuration reloaded, tracking {} servers.", reloaded.stream().count());
+
+		for (Consumer<Configuration> listener : this.listeners) {
+			try {
+				listener.accept(reloaded);
+			} catch (RuntimeException e) {
+				Logger.error(e);
+			}
+		}
+	}
+}
@@ -0,0 +1,170 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import org.javacord.api.entity.permission.PermissionType;
+import org.javacord.api.interaction.DiscordLocale;
+import org.javacord.api.interaction.SlashCommandBuilder;
+import org.javacord.api.interaction.SlashCommandOption;
+import org.javacord.api.interaction.SlashCommandOptionChoice;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * A global slash command as the bot defines it. Unlike a
+ * {@link SlashCommandBuilder} it can be written out in a stable form, so a
+ * definition Discord already has can be told apart from a changed one.
+ */
+final class CommandDefinition {
+	private final String name;
+	private final String description;
+	private final Map<DiscordLocale, String> nameLocalizations = new LinkedHashMap<>();
+	private final Map<DiscordLocale, String> descriptionLocalizations = new LinkedHashMap<>();
+	private final List<SlashCommandOption> options = new ArrayList<>();
+	private final EnumSet<PermissionType> requiredPermissions = EnumSet.noneOf(PermissionType.class);
+
+	CommandDefinition(String name, String description) {
+		this.name = name;
+		this.description = description;
+	}
+
+	public String name() {
+		return this.name;
+	}
+
+	public CommandDefinition addNameLocalization(DiscordLocale locale, String localizedName) {
+		this.nameLocalizations.put(locale, localizedName);
+
+		return this;
+	}
+
+	public CommandDefinition addDescriptionLocalization(DiscordLocale locale, String localizedDescription) {
+		this.descriptionLocalizations.put(locale, localizedDescription);
+
+		return this;
+	}
+
+	public CommandDefinition addOption(SlashCommandOption option) {
+		this.options.add(option);
+
+		return this;
+	}
+
+	/**
+	 * Hides the command from members without {@code permissions} and from
+	 * direct messages. Server admins can still change who may use it.
+	 */
+	public CommandDefinition requirePermissions(PermissionType... permissions) {
+		this.requiredPermissions.addAll(List.of(permissions));
+
+		return this;
+	}
+
+	public SlashCommandBuilder builder() {
+		SlashCommandBuilder builder = new SlashCommandBuilder().
+			setName(this.name).
+			setDescription(this.description);
+
+		this.nameLocalizations.forEach(builder::addNameLocalization);
+		this.descriptionLocalizations.forEach(builder::addDescriptionLocalization);
+		this.options.forEach(builder::addOption);
+
+		if (!this.requiredPermissions.isEmpty()) {
+			builder.setDefaultEnabledForPermissions(this.requiredPermissions);
+			builder.setEnabledInDms(false);
+		}
+
+		return builder;
+	}
+
+	/**
+	 * Writes the definition as JSON, with localizations sorted by locale so the
+	 * same definition is always written the same way.
+	 */
+	public void writeTo(JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("name", this.name);
+		generator.writeStringField("description", this.description);
+		writeLocalizations(generator, "name_localizations", this.nameLocalizations);
+		writeLocalizations(generator, "description_localizations", this.descriptionLocalizations);
+		writeOptions(generator, this.options);
+
+		if (!this.requiredPermissions.isEmpty()) {
+			generator.writeNumberField(
+				"default_member_permissions",
+				this.requiredPermissions.stream().mapToLong(PermissionType::getValue).reduce(0, (a, b) -> a | b)
+			);
+		}
+
+		generator.writeEndObject();
+	}
+
+	private static void writeOptions(JsonGenerator generator, List<SlashCommandOption> options) throws IOException {
+		generator.writeArrayFieldStart("options");
+
+		for (SlashCommandOption option : options) {
+			generator.writeStartObject();
+			generator.writeStringField("type", option.getType().name());
+			generator.writeStringField("name", option.getName());
+			generator.writeStringField("description", option.getDescription());
+			writeLocalizations(generator, "name_localizations", option.getNameLocalizations());
+			writeLocalizations(generator, "description_localizations", option.getDescriptionLocalizations());
+			generator.writeBooleanField("required", option.isRequired());
+			generator.writeBooleanField("autocomplete", option.isAutocompletable());
+			writeOptional(generator, "min_value", option.getLongMinValue());
+			writeOptional(generator, "max_value", option.getLongMaxValue());
+			writeOptional(generator, "min_length", option.getMinLength());
+			writeOptional(generator, "max_length", option.getMaxLength());
+
+			generator.writeArrayFieldStart("choices");
+
+			for (SlashCommandOptionChoice choice : option.getChoices()) {
+				generator.writeStartObject();
+				generator.writeStringField("name", choice.getName());
+				generator.writeStringField("value", choice.getValueAsString());
+				writeLocalizations(generator, "name_localizations", choice.getNameLocalizations());
+				generator.writeEndObject();
+			}
+
+			generator.writeEndArray();
+			writeOptions(generator, option.getOptions());
+			generator.writeEndObject();
+		}
+
+		generator.writeEndArray();
+	}
+
+	private static void writeLocalizations(JsonGenerator generator, String field, Map<DiscordLocale, String> localizations)
+			throws IOException {
+
+		generator.writeObjectFieldStart(field);
+
+		List<DiscordLocale> locales = new ArrayList<>(localizations.keySet());
+		locales.sort(Comparator.comparing(DiscordLocale::getLocaleCode));
+
+		for (DiscordLocale locale : locales) {
+			generator.writeStringField(locale.getLocaleCode(), localizations.get(locale));
+		}
+
+		generator.writeEndObject();
+	}
+
+	private static void writeOptional(JsonGenerator generator, String field, Optional<Long> value) throws IOException {
+		if (value.isPresent()) {
+			generator.writeNumberField(field, value.get());
+		}
+	}
+}
@@ -0,0 +1,106 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.time.Duration;
+import java.util.Optional;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.tinylog.Logger;
+
+import me.undermon.maplogger.metrics.Metrics;
+
+/**
+ * Runs the blocking part of commands, database queries and rendering, away
+ * from Javacord's listener thread. At most a fixed number of commands may be
+ * running or waiting at once, past that new ones are turned down so the bot
+ * can answer it is busy instead of piling up work.
+ */
+public final class CommandExecutor {
+	private static final int MAX_PENDING = 64;
+	private static final int PLATFORM_THREADS = 4;
+
+	private final ExecutorService executor = newExecutor();
+	private final Semaphore pending = new Semaphore(MAX_PENDING);
+
+	public CommandExecutor() {
+		Metrics.gauge(
+			"commands_pending",
+			"Commands running or waiting to run.",
+			() -> MAX_PENDING - this.pending.availablePermits()
+		);
+	}
+
+	/**
+	 * Schedules a task that must finish within {@code timeout}, if there is room
+	 * for it. The returned future completes with a
+	 * {@link java.util.concurrent.TimeoutException} once the timeout is over.
+	 */
+	public <T> Optional<CompletableFuture<T>> submit(Callable<T> task, Duration timeout) {
+		if (!this.pending.tryAcquire()) {
+			return Optional.empty();
+		}
+
+		CompletableFuture<T> result = CompletableFuture.supplyAsync(() -> {
+			try {
+				return task.call();
+			} catch (RuntimeException e) {
+				throw e;
+			} catch (Exception e) {
+				throw new CompletionException(e);
+			} finally {
+				this.pending.release();
+			}
+		}, this.executor);
+
+		return Optional.of(result.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Virtual threads where the JDK has them, otherwise a small pool of platform
+	 * threads, one per database read connection.
+	 */
+	private static ExecutorService newExecutor() {
+		try {
+			return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+		} catch (ReflectiveOperationException e) {
+			Logger.debug("Virtual threads unavailable, running commands on platform threads.");
+
+			return new ThreadPoolExecutor(
+				PLATFORM_THREADS,
+				PLATFORM_THREADS,
+				0,
+				TimeUnit.MILLISECONDS,
+				new LinkedBlockingQueue<>(MAX_PENDING),
+				threadFactory()
+			);
+		}
+	}
+
+	private static ThreadFactory threadFactory() {
+		AtomicInteger count = new AtomicInteger();
+
+		return runnable -> {
+			Thread thread = Executors.defaultThreadFactory().newThread(runnable);
+
+			thread.setName("CommandExecutor-" + count.incrementAndGet());
+			thread.setDaemon(true);
+
+			return thread;
+		};
+	}
+}
@@ -0,0 +1,122 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
+
+import org.javacord.api.DiscordApi;
+import org.tinylog.Logger;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import me.undermon.maplogger.RoundStore;
+import me.undermon.maplogger.configuration.Configuration;
+
+/**
+ * Registers the bot's global slash commands only when their definition
+ * changed. A hash of what was last registered is kept on the database, while
+ * it matches nothing is sent to Discord.
+ */
+public final class CommandRegistration {
+	private static final String HASH_SETTING = "slash_commands_hash";
+	private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+	private CommandRegistration() {
+		// Do nothing
+	}
+
+	/**
+	 * Overwrites the global commands in the background if their definition
+	 * differs from the one last registered by this bot.
+	 */
+	public static CompletableFuture<Void> registerIfChanged(DiscordApi api, Configuration config, RoundStore roundRepo) {
+		List<CommandDefinition> definitions = List.of(
+			PlayedCommand.definition(config),
+			MapStatsCommand.definition(),
+			ExportCommand.definition()
+		);
+		String hash = hash(api.getClientId(), definitions);
+
+		if (storedHash(roundRepo).filter(hash::equals).isPresent()) {
+			Logger.info("Slash commands are unchanged, skipped registering them.");
+
+			return CompletableFuture.completedFuture(null);
+		}
+
+		return api.bulkOverwriteGlobalApplicationCommands(
+				definitions.stream().map(CommandDefinition::builder).collect(Collectors.toSet())
+			).
+			thenAccept(commands -> {
+				Logger.info("Registered {} slash commands.", commands.size());
+
+				try {
+					roundRepo.saveSetting(HASH_SETTING, hash);
+				} catch (SQLException e) {
+					Logger.error("Could not store the slash commands hash: {}", e.toString());
+				}
+			}).
+			exceptionally(e -> {
+				Logger.error("Could not register slash commands: {}", e.toString());
+
+				return null;
+			});
+	}
+
+	private static Optional<String> storedHash(RoundStore roundRepo) {
+		try {
+			return roundRepo.setting(HASH_SETTING);
+		} catch (SQLException e) {
+			Logger.warn("Could not read the slash commands hash, registering them again: {}", e.toString());
+
+			return Optional.empty();
+		}
+	}
+
+	/**
+	 * SHA-256 of the definitions, sorted by name, and of the application they
+	 * are registered for.
+	 */
+	static String hash(long clientId, List<CommandDefinition> definitions) {
+		StringWriter json = new StringWriter();
+
+		try (JsonGenerator generator = JSON_FACTORY.createGenerator(json)) {
+			generator.writeStartObject();
+			generator.writeNumberField("application", clientId);
+			generator.writeArrayFieldStart("commands");
+
+			for (CommandDefinition definition : definitions.stream().sorted(Comparator.comparing(CommandDefinition::name)).toList()) {
+				definition.writeTo(generator);
+			}
+
+			generator.writeEndArray();
+			generator.writeEndObject();
+		} catch (IOException e) {
+			throw new UncheckedIOException(e);
+		}
+
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-256").digest(json.toString().getBytes(StandardCharsets.UTF_8));
+
+			return HexFormat.of().formatHex(digest);
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+}
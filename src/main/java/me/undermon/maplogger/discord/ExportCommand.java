@@ -0,0 +1,249 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+
+import org.javacord.api.DiscordApi;
+import org.javacord.api.entity.message.MessageFlag;
+import org.javacord.api.entity.permission.PermissionType;
+import org.javacord.api.event.interaction.SlashCommandCreateEvent;
+import org.javacord.api.interaction.DiscordLocale;
+import org.javacord.api.interaction.SlashCommandInteraction;
+import org.javacord.api.interaction.SlashCommandInteractionOption;
+import org.javacord.api.interaction.SlashCommandOption;
+import org.javacord.api.interaction.SlashCommandOptionBuilder;
+import org.javacord.api.interaction.SlashCommandOptionChoiceBuilder;
+import org.javacord.api.interaction.SlashCommandOptionType;
+import org.javacord.api.listener.interaction.SlashCommandCreateListener;
+import org.tinylog.Logger;
+
+import me.undermon.maplogger.RoundExport;
+import me.undermon.maplogger.RoundStore;
+import me.undermon.maplogger.metrics.Counter;
+import me.undermon.maplogger.metrics.Metrics;
+
+/**
+ * Sends the round history of every server as a gzipped attachment, only to
+ * the owner of the bot or the members of the team owning it: the history holds
+ * every guild the bot is in, so the administrator permission the command asks
+ * for by default is not enough. The export is written to a temporary file
+ * first, so it takes the same memory however long the history is, and
+ * histories too big to attach are left to the export mode.
+ */
+public final class ExportCommand implements SlashCommandCreateListener {
+	private static final String COMMAND_NAME = "export";
+	private static final String FORMAT_OPTION = "format";
+	private static final String DAYS_OPTION = "days";
+
+	private static final long MAX_ATTACHMENT_BYTES = 10L * 1024 * 1024;
+	private static final Duration COMMAND_TIMEOUT = Duration.ofMinutes(2);
+
+	private static final Counter OUTCOMES = Metrics.counter(
+		"export", "/export commands, by outcome.", "outcome"
+	);
+
+	private final RoundStore roundRepo;
+	private final CommandExecutor commandExecutor;
+
+	/**
+	 * A finished export, with how many rounds are on it and its size.
+	 */
+	private record Export(Path file, long rounds, long bytes) {}
+
+	/**
+	 * Deletes the file of an export that finished after its command timed out,
+	 * whichever of the two happens last.
+	 */
+	private static final class Abandonment {
+		private Path finished;
+		private boolean abandoned;
+
+		synchronized void finished(Path file) {
+			if (this.abandoned) {
+				delete(file);
+			} else {
+				this.finished = file;
+			}
+		}
+
+		synchronized void abandon() {
+			this.abandoned = true;
+
+			if (this.finished != null) {
+				delete(this.finished);
+			}
+		}
+	}
+
+	public ExportCommand(RoundStore roundRepo, CommandExecutor commandExecutor) {
+		this.roundRepo = roundRepo;
+		this.commandExecutor = commandExecutor;
+	}
+
+	@Override
+	public void onSlashCommandCreate(SlashCommandCreateEvent event) {
+		SlashCommandInteraction command = event.getSlashCommandInteraction();
+
+		if (!command.getFullCommandName().equals(COMMAND_NAME)) {
+			return;
+		}
+
+		RoundExport.Format format = command.getOptionByName(FORMAT_OPTION).
+			flatMap(SlashCommandInteractionOption::getStringValue).
+			map(RoundExport.Format::valueOf).
+			orElse(RoundExport.Format.CSV);
+		Instant since = command.getOptionByName(DAYS_OPTION).
+			flatMap(SlashCommandInteractionOption::getLongValue).
+			map(days -> Instant.now().minus(Duration.ofDays(Math.min(RoundExport.MAX_DAYS, Math.max(1, days))))).
+			orElse(Instant.EPOCH);
+		Locale locale = LocaleConverter.fromDiscord(command.getLocale());
+
+		if (!isOwner(event, command.getUser().getId())) {
+			OUTCOMES.increment("denied");
+			command.createImmediateResponder().
+				setContent(Messages.exportNotAllowed(locale)).
+				setFlags(MessageFlag.EPHEMERAL).
+				respond();
+
+			return;
+		}
+
+		Abandonment abandonment = new Abandonment();
+		var respondLater = command.respondLater(true);
+		var exporting = this.commandExecutor.submit(() -> this.export(format, since, abandonment), COMMAND_TIMEOUT);
+
+		if (exporting.isEmpty()) {
+			OUTCOMES.increment("busy");
+			respondLater.thenAccept(original -> original.setContent(Messages.busy(locale)).update());
+
+			return;
+		}
+
+		exporting.get().
+			thenCombine(respondLater, (export, original) -> {
+				if (export.bytes() > MAX_ATTACHMENT_BYTES) {
+					OUTCOMES.increment("too_big");
+
+					return original.setContent(Messages.exportTooBig(locale)).update().
+						whenComplete((message, e) -> delete(export.file()));
+				}
+
+				OUTCOMES.increment("ok");
+
+				return original.
+					setContent(Messages.exportDone(locale, export.rounds())).
+					addAttachment(export.file().toFile(), "rounds" + format.extension() + ".gz").
+					update().
+					whenComplete((message, e) -> delete(export.file()));
+			}).
+			thenCompose(update -> update).
+			exceptionally(e -> {
+				Logger.error(e.toString());
+
+				boolean timedOut = e.getCause() instanceof TimeoutException;
+				String reply = timedOut ? Messages.busy(locale) : Messages.problemOnRetrieval(locale);
+
+				if (timedOut) {
+					abandonment.abandon();
+				}
+
+				OUTCOMES.increment(timedOut ? "timeout" : "error");
+				respondLater.thenAccept(original -> original.setContent(reply).update());
+
+				return null;
+			});
+	}
+
+	private Export export(RoundExport.Format format, Instant since, Abandonment abandonment)
+			throws SQLException, IOException {
+
+		Path file = Files.createTempFile("rounds", format.extension() + ".gz");
+
+		try {
+			long rounds = RoundExport.write(this.roundRepo, since, format, true, Files.newOutputStream(file));
+			Export export = new Export(file, rounds, Files.size(file));
+
+			abandonment.finished(file);
+
+			return export;
+		} catch (SQLException | IOException | RuntimeException e) {
+			delete(file);
+
+			throw e;
+		}
+	}
+
+	/**
+	 * Whether a user owns the bot, alone or as a member of the team owning it.
+	 */
+	private static boolean isOwner(SlashCommandCreateEvent event, long userId) {
+		DiscordApi api = event.getApi();
+
+		return api.getOwnerId().map(owner -> owner == userId).orElse(false) ||
+			api.getCachedTeam().
+				map(team -> team.getTeamMembers().stream().anyMatch(member -> member.getId() == userId)).
+				orElse(false);
+	}
+
+	private static void delete(Path file) {
+		try {
+			Files.deleteIfExists(file);
+		} catch (IOException e) {
+			Logger.warn("Could not delete the export at {}: {}", file, e.toString());
+		}
+	}
+
+	static CommandDefinition definition() {
+		final Locale english = LocaleConverter.fromDiscord(DiscordLocale.ENGLISH_US);
+		final Locale portuguese = LocaleConverter.fromDiscord(DiscordLocale.PORTUGUESE_BRAZILIAN);
+		final Locale spanish = LocaleConverter.fromDiscord(DiscordLocale.SPANISH);
+
+		SlashCommandOptionBuilder format = new SlashCommandOptionBuilder().
+			setType(SlashCommandOptionType.STRING).
+			setName(FORMAT_OPTION).
+			setDescription(Messages.formatOptionDesc(english)).
+			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.formatOptionName(portuguese)).
+			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.formatOptionDesc(portuguese)).
+			addNameLocalization(DiscordLocale.SPANISH, Messages.formatOptionName(spanish)).
+			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.formatOptionDesc(spanish));
+
+		for (RoundExport.Format choice : RoundExport.Format.values()) {
+			format.addChoice(new SlashCommandOptionChoiceBuilder().
+				setName(choice.name()).
+				setValue(choice.name()).
+				build());
+		}
+
+		SlashCommandOption days = new SlashCommandOptionBuilder().
+			setType(SlashCommandOptionType.LONG).
+			setLongMinValue(1).
+			setName(DAYS_OPTION).
+			setDescription(Messages.exportDaysOptionDesc(english)).
+			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.daysOptionName(portuguese)).
+			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.exportDaysOptionDesc(portuguese)).
+			addNameLocalization(DiscordLocale.SPANISH, Messages.daysOptionName(spanish)).
+			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.exportDaysOptionDesc(spanish)).
+			build();
+
+		return new CommandDefinition(COMMAND_NAME, Messages.exportCommandDesc(english)).
+			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.exportCommandName(portuguese)).
+			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.exportCommandDesc(portuguese)).
+			addNameLocalization(DiscordLocale.SPANISH, Messages.exportCommandName(spanish)).
+			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.exportCommandDesc(spanish)).
+			addOption(format.build()).
+			addOption(days).
+			requirePermissions(PermissionType.ADMINISTRATOR);
+	}
+}
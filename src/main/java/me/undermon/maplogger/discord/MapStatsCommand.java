@@ -0,0 +1,241 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.sql.SQLException;
+import java.time.Duration;
+import java.time.LocalDate;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+
+import org.javacord.api.event.interaction.SlashCommandCreateEvent;
+import org.javacord.api.interaction.DiscordLocale;
+import org.javacord.api.interaction.SlashCommandInteraction;
+import org.javacord.api.interaction.SlashCommandInteractionOption;
+import org.javacord.api.interaction.SlashCommandOption;
+import org.javacord.api.interaction.SlashCommandOptionBuilder;
+import org.javacord.api.interaction.SlashCommandOptionChoiceBuilder;
+import org.javacord.api.interaction.SlashCommandOptionType;
+import org.javacord.api.listener.interaction.SlashCommandCreateListener;
+import org.tinylog.Logger;
+
+import me.undermon.maplogger.LevelPlays;
+import me.undermon.maplogger.RoundStore;
+import me.undermon.maplogger.ServerDirectory;
+import me.undermon.maplogger.configuration.TrackedServer;
+import me.undermon.maplogger.metrics.Counter;
+import me.undermon.maplogger.metrics.Histogram;
+import me.undermon.maplogger.metrics.Metrics;
+import me.undermon.realityapi.spy.Map;
+
+/**
+ * Lists the maps, modes, layers or levels a server played the most within the
+ * last days. Only the daily rollup is read, so answering takes the same time
+ * however long the history is.
+ */
+public final class MapStatsCommand implements SlashCommandCreateListener {
+	private static final String COMMAND_NAME = "mapstats";
+	private static final String DAYS_OPTION = "days";
+	private static final String GROUP_OPTION = "by";
+
+	private static final int DEFAULT_DAYS = 30;
+	private static final int MAX_DAYS = 365;
+	private static final int TOP_SIZE = 15;
+	private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(10);
+
+	private static final Histogram DURATION = Metrics.histogram(
+		"mapstats_duration_seconds", "Time from a /mapstats command to its answer.", Histogram.SECONDS
+	);
+	private static final Counter OUTCOMES = Metrics.counter(
+		"mapstats", "/mapstats commands, by outcome.", "outcome"
+	);
+
+	private final RoundStore roundRepo;
+	private final ServerDirectory directory;
+	private final CommandExecutor commandExecutor;
+
+	/**
+	 * The ways rounds can be grouped, each with the text shown for a group.
+	 */
+	private enum Grouping {
+		MAP(plays -> plays.map() == Map.UNKNOWN ? "???" : plays.map().getFullName()),
+		MODE(plays -> plays.mode().getShortName().toUpperCase()),
+		LAYER(plays -> plays.layer().getShortName().toUpperCase()),
+		LEVEL(plays -> "%s (%s, %s)".formatted(MAP.label(plays), MODE.label(plays), LAYER.label(plays)));
+
+		private final Function<LevelPlays, String> label;
+
+		Grouping(Function<LevelPlays, String> label) {
+			this.label = label;
+		}
+
+		String label(LevelPlays plays) {
+			return this.label.apply(plays);
+		}
+
+		String choiceName(Locale locale) {
+			return Messages.groupChoiceName(locale, this.name());
+		}
+	}
+
+	private record Group(String label, int rounds, long players) {
+
+		Group plus(Group other) {
+			return new Group(this.label, this.rounds + other.rounds(), this.players + other.players());
+		}
+	}
+
+	public MapStatsCommand(RoundStore roundRepo, ServerDirectory directory, CommandExecutor commandExecutor) {
+		this.roundRepo = roundRepo;
+		this.directory = directory;
+		this.commandExecutor = commandExecutor;
+	}
+
+	@Override
+	public void onSlashCommandCreate(SlashCommandCreateEvent event) {
+		SlashCommandInteraction command = event.getSlashCommandInteraction();
+
+		if (!command.getFullCommandName().equals(COMMAND_NAME)) {
+			return;
+		}
+
+		long start = System.nanoTime();
+		int days = (int) Math.min(MAX_DAYS, Math.max(1, command.getOptionByName(DAYS_OPTION).
+			flatMap(SlashCommandInteractionOption::getLongValue).
+			orElse((long) DEFAULT_DAYS)));
+		Grouping grouping = command.getOptionByName(GROUP_OPTION).
+			flatMap(SlashCommandInteractionOption::getStringValue).
+			map(Grouping::valueOf).
+			orElse(Grouping.LEVEL);
+		TrackedServer server = ServerOption.selected(command, this.directory);
+		Locale locale = LocaleConverter.fromDiscord(command.getLocale());
+
+		var respondLater = command.respondLater(true);
+		var rendering = this.commandExecutor.submit(() -> this.render(locale, server, days, grouping), COMMAND_TIMEOUT);
+
+		if (rendering.isEmpty()) {
+			OUTCOMES.increment("busy");
+			respondLater.thenAccept(original -> original.setContent(Messages.busy(locale)).update());
+
+			return;
+		}
+
+		rendering.get().
+			thenCombine(respondLater, (stats, original) -> original.setContent(stats).update()).
+			thenCompose(update -> update).
+			thenRun(() -> {
+				DURATION.observeSince(start);
+				OUTCOMES.increment("ok");
+			}).
+			exceptionally(e -> {
+				Logger.error(e.toString());
+
+				boolean timedOut = e.getCause() instanceof TimeoutException;
+				String reply = timedOut ? Messages.busy(locale) : Messages.problemOnRetrieval(locale);
+
+				OUTCOMES.increment(timedOut ? "timeout" : "error");
+				respondLater.thenAccept(original -> original.setContent(reply).update());
+
+				return null;
+			});
+	}
+
+	private String render(Locale locale, TrackedServer server, int days, Grouping grouping) throws SQLException {
+		LocalDate since = LocalDate.now(RoundStore.ROLLUP_ZONE).minusDays(days - 1L);
+		java.util.Map<String, Group> groups = new HashMap<>();
+
+		for (LevelPlays plays : this.roundRepo.playsSince(server.id(), since)) {
+			String label = grouping.label(plays);
+
+			groups.merge(label, new Group(label, plays.rounds(), plays.players()), Group::plus);
+		}
+
+		List<Group> top = groups.values().stream().
+			sorted(Comparator.comparingInt(Group::rounds).reversed().thenComparing(Group::label)).
+			limit(TOP_SIZE).
+			toList();
+
+		return formatToMessage(MessageCatalog.of(locale), server, days, top);
+	}
+
+	private static String formatToMessage(MessageCatalog catalog, TrackedServer server, int days, List<Group> top) {
+		StringBuilder builder = new StringBuilder(128 + top.size() * 96).
+			append("🖥️ **").
+			append(server.name().toUpperCase()).
+			append("** ").
+			append(catalog.format("mapstats_header", days)).
+			append(".\n\n");
+
+		if (top.isEmpty()) {
+			builder.append("🔸 ").append(catalog.get("no_rounds_found"));
+		}
+
+		for (int i = 0; i < top.size(); i++) {
+			Group group = top.get(i);
+
+			builder.
+				append("🔹 **").
+				append(i + 1).
+				append(". ").
+				append(group.label()).
+				append("** — ").
+				append(catalog.format("mapstats_line", group.rounds(), Math.round((double) group.players() / group.rounds()))).
+				append('\n');
+		}
+
+		return builder.toString();
+	}
+
+	static CommandDefinition definition() {
+		final Locale english = LocaleConverter.fromDiscord(DiscordLocale.ENGLISH_US);
+		final Locale portuguese = LocaleConverter.fromDiscord(DiscordLocale.PORTUGUESE_BRAZILIAN);
+		final Locale spanish = LocaleConverter.fromDiscord(DiscordLocale.SPANISH);
+
+		SlashCommandOption days = new SlashCommandOptionBuilder().
+			setType(SlashCommandOptionType.LONG).
+			setLongMinValue(1).
+			setLongMaxValue(MAX_DAYS).
+			setName(DAYS_OPTION).
+			setDescription(Messages.daysOptionDesc(english, DEFAULT_DAYS)).
+			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.daysOptionName(portuguese)).
+			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.daysOptionDesc(portuguese, DEFAULT_DAYS)).
+			addNameLocalization(DiscordLocale.SPANISH, Messages.daysOptionName(spanish)).
+			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.daysOptionDesc(spanish, DEFAULT_DAYS)).
+			build();
+
+		SlashCommandOptionBuilder group = new SlashCommandOptionBuilder().
+			setType(SlashCommandOptionType.STRING).
+			setName(GROUP_OPTION).
+			setDescription(Messages.groupOptionDesc(english)).
+			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.groupOptionName(portuguese)).
+			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.groupOptionDesc(portuguese)).
+			addNameLocalization(DiscordLocale.SPANISH, Messages.groupOptionName(spanish)).
+			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.groupOptionDesc(spanish));
+
+		for (Grouping grouping : Grouping.values()) {
+			group.addChoice(new SlashCommandOptionChoiceBuilder().
+				setName(grouping.choiceName(english)).
+				addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, grouping.choiceName(portuguese)).
+				addNameLocalization(DiscordLocale.SPANISH, grouping.choiceName(spanish)).
+				setValue(grouping.name()).
+				build());
+		}
+
+		return new CommandDefinition(COMMAND_NAME, Messages.mapStatsCommandDesc(english)).
+			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.mapStatsCommandName(portuguese)).
+			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.mapStatsCommandDesc(portuguese)).
+			addNameLocalization(DiscordLocale.SPANISH, Messages.mapStatsCommandName(spanish)).
+			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.mapStatsCommandDesc(spanish)).
+			addOption(days).
+			addOption(group.build()).
+			addOption(ServerOption.create());
+	}
+}
@@ -0,0 +1,111 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.text.MessageFormat;
+import java.time.format.DateTimeFormatter;
+import java.time.format.FormatStyle;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.ResourceBundle;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.javacord.api.interaction.DiscordLocale;
+import org.tinylog.Logger;
+
+/**
+ * Everything needed to write messages in one language, resolved once: every
+ * string of the bundle, its {@link MessageFormat} templates and the date and
+ * time formatters used on round listings.
+ */
+final class MessageCatalog {
+	private static final String NAME = "messages";
+	private static final String MISSING = "??LOCALE??";
+	private static final ResourceBundle.Control CONTROL = new ResourceBundle.Control() {
+		@Override
+		public Locale getFallbackLocale(String baseName, Locale locale) {
+			return locale.equals(Locale.ROOT) ? null : Locale.ROOT;
+		}
+	};
+
+	private static final Map<Locale, MessageCatalog> CATALOGS = new ConcurrentHashMap<>();
+
+	private final Locale locale;
+	private final Map<String, String> strings = new HashMap<>();
+	private final Map<String, MessageFormat> templates = new HashMap<>();
+	private final DateTimeFormatter dateFormatter;
+	private final DateTimeFormatter timeFormatter;
+
+	private MessageCatalog(Locale locale) {
+		this.locale = locale;
+		this.dateFormatter = DateTimeFormatter.ofLocalizedDate(FormatStyle.FULL).withLocale(locale);
+		this.timeFormatter = DateTimeFormatter.ofLocalizedTime(FormatStyle.SHORT).withLocale(locale);
+
+		try {
+			ResourceBundle bundle = ResourceBundle.getBundle(NAME, locale, CONTROL);
+
+			for (String key : bundle.keySet()) {
+				String value = bundle.getString(key);
+
+				this.strings.put(key, value);
+
+				if (value.contains("{")) {
+					this.templates.put(key, new MessageFormat(value, locale));
+				}
+			}
+		} catch (Exception e) {
+			Logger.warn(e.getMessage());
+		}
+	}
+
+	public static MessageCatalog of(Locale locale) {
+		return CATALOGS.computeIfAbsent(locale, MessageCatalog::new);
+	}
+
+	public static MessageCatalog of(DiscordLocale locale) {
+		return of(LocaleConverter.fromDiscord(locale));
+	}
+
+	public Locale locale() {
+		return this.locale;
+	}
+
+	public String get(String entry) {
+		String value = this.strings.get(entry.toLowerCase());
+
+		if (value == null) {
+			Logger.warn("Missing message '{}' for locale {}.", entry, this.locale);
+
+			return MISSING;
+		}
+
+		return value;
+	}
+
+	public String format(String entry, Object... arguments) {
+		MessageFormat template = this.templates.get(entry.toLowerCase());
+
+		if (template == null) {
+			Logger.warn("Missing message '{}' for locale {}.", entry, this.locale);
+
+			return MISSING;
+		}
+
+		synchronized (template) {
+			return template.format(arguments);
+		}
+	}
+
+	public DateTimeFormatter dateFormatter() {
+		return this.dateFormatter;
+	}
+
+	public DateTimeFormatter timeFormatter() {
+		return this.timeFormatter;
+	}
+}
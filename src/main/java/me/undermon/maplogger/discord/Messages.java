@@ -6,21 +6,10 @@
 
 package me.undermon.maplogger.discord;
 
-import java.text.MessageFormat;
 import java.time.temporal.ChronoUnit;
 import java.util.Locale;
-import java.util.ResourceBundle;
-
-import org.tinylog.Logger;
 
 public final class Messages {
-	private static final String NAME = "messages";
-	private static final ResourceBundle.Control CONTROL = new ResourceBundle.Control() {
-		@Override
-		public Locale getFallbackLocale(String baseName, Locale locale) {
-			return Locale.ROOT;
-		}
-	};
 
 	private Messages() {
 		// Do nothing
@@ -34,6 +23,10 @@ public final class Messages {
 		return get("problem_on_retrieval", locale);
 	}
 
+	public static String busy(Locale locale) {
+		return get("busy", locale);
+	}
+
 	public static String noRoundsFound(Locale locale) {
 		return get("no_rounds_found", locale);
 	}
@@ -55,7 +48,7 @@ public final class Messages {
 	}
 
 	public static String timeOptionDesc(Locale locale, int timespan) {
-		return MessageFormat.format(get("time_option_desc", locale), timespan);
+		return MessageCatalog.of(locale).format("time_option_desc", timespan);
 	}
 
 	public static String unitOptionName(Locale locale) {
@@ -73,7 +66,7 @@ public final class Messages {
 			unitName = hourChoiceName(locale);
 		}
 
-		return MessageFormat.format(get("unit_option_desc", locale), unitName);
+		return MessageCatalog.of(locale).format("unit_option_desc", unitName);
 	}
 
 	public static String serverOptionName(Locale locale) {
@@ -104,14 +97,75 @@ public final class Messages {
 		return get("timezone_connective", locale);
 	}
 
+	public static String olderPage(Locale locale) {
+		return get("older_page", locale);
+	}
+
+	public static String newerPage(Locale locale) {
+		return get("newer_page", locale);
+	}
+
+	public static String mapStatsCommandName(Locale locale) {
+		return get("mapstats_comm_name", locale);
+	}
+
+	public static String mapStatsCommandDesc(Locale locale) {
+		return get("mapstats_comm_desc", locale);
+	}
+
+	public static String daysOptionName(Locale locale) {
+		return get("days_option_name", locale);
+	}
+
+	public static String daysOptionDesc(Locale locale, int days) {
+		return MessageCatalog.of(locale).format("days_option_desc", days);
+	}
+
+	public static String groupOptionName(Locale locale) {
+		return get("group_option_name", locale);
+	}
+
+	public static String groupOptionDesc(Locale locale) {
+		return get("group_option_desc", locale);
+	}
+
+	public static String groupChoiceName(Locale locale, String grouping) {
+		return get(grouping + "_choice_name", locale);
+	}
+
+	public static String exportCommandName(Locale locale) {
+		return get("export_comm_name", locale);
+	}
+
+	public static String exportCommandDesc(Locale locale) {
+		return get("export_comm_desc", locale);
+	}
+
+	public static String formatOptionName(Locale locale) {
+		return get("format_option_name", locale);
+	}
+
+	public static String formatOptionDesc(Locale locale) {
+		return get("format_option_desc", locale);
+	}
+
+	public static String exportDaysOptionDesc(Locale locale) {
+		return get("export_days_option_desc", locale);
+	}
+
+	public static String exportDone(Locale locale, long rounds) {
+		return MessageCatalog.of(locale).format("export_done", rounds);
+	}
+
+	public static String exportTooBig(Locale locale) {
+		return get("export_too_big", locale);
+	}
+
+	public static String exportNotAllowed(Locale locale) {
+		return get("export_not_allowed", locale);
+	}
+
 	private static final String get(String entry, Locale locale) {
-		
-		try {
-			return ResourceBundle.getBundle(NAME, locale, CONTROL).getString(entry.toLowerCase());
-		} catch (Exception e) {
-			Logger.warn(e.getMessage());
-			
-			return "??LOCALE??";
-		}
+		return MessageCatalog.of(locale).get(entry);
 	}
 }
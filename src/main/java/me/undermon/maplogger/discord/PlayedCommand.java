@@ -6,22 +6,26 @@
 
 package me.undermon.maplogger.discord;
 
+import java.sql.SQLException;
 import java.time.Duration;
+import java.time.Instant;
 import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.ZonedDateTime;
 import java.time.format.DateTimeFormatter;
-import java.time.format.FormatStyle;
 import java.time.format.TextStyle;
 import java.time.temporal.ChronoUnit;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.TimeoutException;
 
-import org.javacord.api.DiscordApi;
 import org.javacord.api.entity.message.MessageFlag;
-import org.javacord.api.event.interaction.AutocompleteCreateEvent;
+import org.javacord.api.entity.message.component.ActionRow;
+import org.javacord.api.entity.message.component.Button;
+import org.javacord.api.event.interaction.ButtonClickEvent;
 import org.javacord.api.event.interaction.SlashCommandCreateEvent;
+import org.javacord.api.interaction.ButtonInteraction;
 import org.javacord.api.interaction.DiscordLocale;
-import org.javacord.api.interaction.SlashCommandBuilder;
 import org.javacord.api.interaction.SlashCommandInteraction;
 import org.javacord.api.interaction.SlashCommandInteractionOption;
 import org.javacord.api.interaction.SlashCommandOption;
@@ -29,35 +33,74 @@ import org.javacord.api.interaction.SlashCommandOptionBuilder;
 import org.javacord.api.interaction.SlashCommandOptionChoice;
 import org.javacord.api.interaction.SlashCommandOptionChoiceBuilder;
 import org.javacord.api.interaction.SlashCommandOptionType;
-import org.javacord.api.listener.interaction.AutocompleteCreateListener;
+import org.javacord.api.interaction.callback.ExtendedInteractionMessageBuilderBase;
+import org.javacord.api.listener.interaction.ButtonClickListener;
 import org.javacord.api.listener.interaction.SlashCommandCreateListener;
 import org.tinylog.Logger;
 
+import me.undermon.maplogger.PageCursor;
 import me.undermon.maplogger.Round;
-import me.undermon.maplogger.RoundRepository;
+import me.undermon.maplogger.RoundPage;
+import me.undermon.maplogger.RoundStore;
+import me.undermon.maplogger.ServerDirectory;
 import me.undermon.maplogger.configuration.Configuration;
+import me.undermon.maplogger.configuration.LiveConfiguration;
 import me.undermon.maplogger.configuration.TrackedServer;
+import me.undermon.maplogger.metrics.Counter;
+import me.undermon.maplogger.metrics.Histogram;
+import me.undermon.maplogger.metrics.Metrics;
 import me.undermon.realityapi.spy.Map;
 
-public final class PlayedCommand implements SlashCommandCreateListener, AutocompleteCreateListener {
+public final class PlayedCommand implements SlashCommandCreateListener, ButtonClickListener {
 	private static final String TIME_OPTION = "time";
 	private static final String UNIT_OPTION = "unit";
-	private static final String SERVER_OPTION = "server";
 	private static final String HOURS_CHOICE = "hours";
 	private static final String DAYS_CHOICE = "days";
 
 	private static final String COMMAND_NAME = "played";
 
-	private final Configuration configFile;
-	private final RoundRepository roundRepo;
-	private final List<SlashCommandOptionChoice> targetServerChoices;
+	private static final int PAGE_SIZE = 15;
+	private static final String PAGE_ID_SEPARATOR = ":";
+	private static final String OLDER_PAGE = "older";
+	private static final String NEWER_PAGE = "newer";
+
+	private static final Duration COMMAND_TIMEOUT = Duration.ofSeconds(10);
+	private static final Duration BUTTON_TIMEOUT = Duration.ofMillis(2500);
+
+	private static final String COMMAND_INTERACTION = "command";
+	private static final String BUTTON_INTERACTION = "button";
+
+	private static final Histogram DURATION = Metrics.histogram(
+		"played_duration_seconds", "Time from a /played interaction to its answer, by interaction.", Histogram.SECONDS, "interaction"
+	);
+	private static final Histogram RESPONSE_SIZE = Metrics.histogram(
+		"played_response_chars", "Length of /played listings.", Histogram.exponentialBounds(250, 2, 8)
+	);
+	private static final Counter OUTCOMES = Metrics.counter(
+		"played", "/played interactions, by interaction and outcome.", "interaction", "outcome"
+	);
+	private static final Counter COALESCED = Metrics.counter(
+		"played_coalesced", "/played commands answered with the listing an identical one was already fetching."
+	);
+
+	private final LiveConfiguration configFile;
+	private final RoundStore roundRepo;
+	private final ServerDirectory directory;
+	private final CommandExecutor commandExecutor;
+	private final SingleFlight<PlayedQuery, RenderedPage> listings = new SingleFlight<>(COALESCED);
+
+	/**
+	 * What makes two /played commands get the same listing.
+	 */
+	private record PlayedQuery(String server, Duration searchSpam, Locale locale) {}
+
+	public PlayedCommand(LiveConfiguration configFile, RoundStore roundRepo, ServerDirectory directory,
+			CommandExecutor commandExecutor) {
 
-	public PlayedCommand(Configuration configFile, RoundRepository roundRepo) {
 		this.configFile = configFile;
 		this.roundRepo = roundRepo;
-		this.targetServerChoices = configFile.stream().
-			map(server -> SlashCommandOptionChoice.create(server.name(), server.id())).
-			toList();
+		this.directory = directory;
+		this.commandExecutor = commandExecutor;
 	}
 
 	@Override
@@ -68,104 +111,256 @@ public final class PlayedCommand implements SlashCommandCreateListener, Autocomp
 			return;
 		}
 	
-		long time = this.getInputTimeOption(command);
-		ChronoUnit unit = this.getInputUnitOption(command);
-		TrackedServer server = this.getInputServerOption(command);
+		Configuration config = this.configFile.current();
+		long time = getInputTimeOption(command, config);
+		ChronoUnit unit = getInputUnitOption(command, config);
+		TrackedServer server = ServerOption.selected(command, this.directory);
 		Duration searchSpam = Duration.of(time, unit);
 
 		this.failIfSearchSpamIsTooBig(command, searchSpam);
 
+		long start = System.nanoTime();
 		var respondLater = command.respondLater(true);
 
-		try {
-			List<Round> playedRounds = this.roundRepo.queryByTimespam(server.id(), searchSpam);
+		Locale locale = LocaleConverter.fromDiscord(command.getLocale());
+		Instant since = Instant.now().minus(searchSpam);
 
-			String formatedRounds = this.formatToMessage(command.getLocale(), server, playedRounds);
+		var rendering = this.listings.run(
+			new PlayedQuery(server.id(), searchSpam, locale),
+			() -> this.commandExecutor.submit(
+				() -> this.renderPage(config, locale, server, since, PageCursor.LATEST, true),
+				COMMAND_TIMEOUT
+			)
+		);
 
-			if (formatedRounds.length() > 2000) {
-				String stripped = formatedRounds.
-					replace("*", "").
-					replace("🖥️ ", "").
-					replace("🗓️ ", "").
-					replace("🔸", "-").
-					replace("🔹", "-");
+		if (rendering.isEmpty()) {
+			OUTCOMES.increment(COMMAND_INTERACTION, "busy");
+			respondLater.thenAccept(original -> original.setContent(Messages.busy(locale)).update());
 
-				Locale locale = LocaleConverter.fromDiscord(command.getLocale());
+			return;
+		}
 
-				respondLater.thenAccept(original -> 
-					original.setContent("📎 " + Messages.messageTooLong(locale)).
-						addAttachment(stripped.getBytes(), Messages.mapAttachmentName(locale) + ".txt").
-						update()
-				);
-			}
+		rendering.get().
+			thenCombine(respondLater, (page, original) -> page.fill(original).update()).
+			thenCompose(update -> update).
+			thenRun(() -> answered(COMMAND_INTERACTION, start)).
+			exceptionally(e -> {
+				Logger.error(e.toString());
+
+				boolean timedOut = e.getCause() instanceof TimeoutException;
+				String reply = timedOut ? Messages.busy(locale) : Messages.problemOnRetrieval(locale);
+
+				OUTCOMES.increment(COMMAND_INTERACTION, timedOut ? "timeout" : "error");
+
+				respondLater.thenAccept(original -> original.setContent(reply).update());
 
-			respondLater.thenAccept(original -> original.setContent(formatedRounds).update());
+				return null;
+			});
+	}
+
+	/**
+	 * Turns to the page the clicked navigation button points at, editing the
+	 * message in place.
+	 */
+	@Override
+	public void onButtonClick(ButtonClickEvent event) {
+		ButtonInteraction button = event.getButtonInteraction();
+		String[] parts = button.getCustomId().split(PAGE_ID_SEPARATOR, 6);
+
+		if (parts.length != 6 || !parts[0].equals(COMMAND_NAME)) {
+			return;
+		}
 
-		} catch (Exception e) {
-			Logger.error(e.toString());
+		long start = System.nanoTime();
+		Locale locale = LocaleConverter.fromDiscord(button.getLocale());
+		Configuration config = this.configFile.current();
+
+		var rendering = this.commandExecutor.submit(() -> {
+			Instant since = Instant.ofEpochMilli(Long.parseLong(parts[2], Character.MAX_RADIX));
+			PageCursor cursor = new PageCursor(
+				Long.parseLong(parts[3], Character.MAX_RADIX),
+				Long.parseLong(parts[4], Character.MAX_RADIX)
+			);
+			TrackedServer server = this.directory.byId(parts[5]).orElseThrow();
+
+			return this.renderPage(config, locale, server, since, cursor, parts[1].equals(OLDER_PAGE));
+		}, BUTTON_TIMEOUT);
+
+		if (rendering.isEmpty()) {
+			OUTCOMES.increment(BUTTON_INTERACTION, "busy");
+			button.createImmediateResponder().
+				setContent(Messages.busy(locale)).
+				setFlags(MessageFlag.EPHEMERAL).
+				respond();
 
-			e.printStackTrace();
-			respondLater.thenAccept(original -> original.setContent(Messages.problemOnRetrieval(LocaleConverter.fromDiscord(
-					command.getLocale()))).update());
+			return;
 		}
+
+		rendering.get().
+			thenCompose(page -> page.fill(button.createOriginalMessageUpdater().removeAllComponents()).update()).
+			thenRun(() -> answered(BUTTON_INTERACTION, start)).
+			exceptionally(e -> {
+				Logger.error(e.toString());
+
+				boolean timedOut = e.getCause() instanceof TimeoutException;
+				String reply = timedOut ? Messages.busy(locale) : Messages.problemOnRetrieval(locale);
+
+				OUTCOMES.increment(BUTTON_INTERACTION, timedOut ? "timeout" : "error");
+
+				button.createOriginalMessageUpdater().
+					setContent(reply).
+					removeAllComponents().
+					update();
+
+				return null;
+			});
 	}
 
-	private long getInputTimeOption(SlashCommandInteraction command) {
-		return Math.abs(command.getOptionByName(TIME_OPTION).flatMap(t -> t.getLongValue()).orElse((long) this.configFile.defaultTimespan()));
+	private static void answered(String interaction, long start) {
+		DURATION.observeSince(start, interaction);
+		OUTCOMES.increment(interaction, "ok");
 	}
 
-	private ChronoUnit getInputUnitOption(SlashCommandInteraction command) {
-		return command.getOptionByName(UNIT_OPTION).flatMap(SlashCommandInteractionOption::getStringValue)
-			.map(ChronoUnit::valueOf).orElse(this.configFile.defaulUnit());
+	/**
+	 * Searches and formats the page of a listing next to {@code cursor}.
+	 */
+	private RenderedPage renderPage(Configuration config, Locale locale, TrackedServer server, Instant since,
+			PageCursor cursor, boolean older) throws SQLException {
+
+		RoundPage page = older ?
+			this.roundRepo.pageBefore(server.id(), since, cursor, PAGE_SIZE) :
+			this.roundRepo.pageAfter(server.id(), since, cursor, PAGE_SIZE);
+
+		String formatedRounds = formatToMessage(
+			MessageCatalog.of(locale),
+			config.getTimezone(),
+			server,
+			page.rounds()
+		);
+
+		RESPONSE_SIZE.observe(formatedRounds.length());
+
+		return new RenderedPage(locale, formatedRounds, navigation(locale, server, since, page));
 	}
 
-	private TrackedServer getInputServerOption(SlashCommandInteraction command) {
-		String idFromChoice = command.
-			getOptionByName(SERVER_OPTION).
-			flatMap(SlashCommandInteractionOption::getStringValue).
-			orElse("");
-		
-		return configFile.stream().
-			filter(t -> t.id().equals(idFromChoice)).
-			findFirst().
-			orElse(configFile.primaryTrackedServer());
+	/**
+	 * A listing page ready to be sent.
+	 */
+	private record RenderedPage(Locale locale, String formatedRounds, ActionRow navigation) {
+
+		/**
+		 * Fills a response with the page and its navigation, attaching the page
+		 * as text instead when it is too long for a message.
+		 */
+		<T extends ExtendedInteractionMessageBuilderBase<T>> T fill(T message) {
+			if (this.formatedRounds.length() <= 2000) {
+				return message.setContent(this.formatedRounds).addComponents(this.navigation);
+			}
+
+			String stripped = this.formatedRounds.
+				replace("*", "").
+				replace("🖥️ ", "").
+				replace("🗓️ ", "").
+				replace("🔸", "-").
+				replace("🔹", "-");
+
+			return message.
+				setContent("📎 " + Messages.messageTooLong(this.locale)).
+				addAttachment(stripped.getBytes(), Messages.mapAttachmentName(this.locale) + ".txt").
+				addComponents(this.navigation);
+		}
 	}
 
-	private String formatToMessage(DiscordLocale discordLocale, TrackedServer server, List<Round> rounds) {
-		Locale locale = LocaleConverter.fromDiscord(discordLocale);
+	/**
+	 * Buttons to turn to the pages before and after, the position of each page
+	 * and the search are encoded in the button ids since Discord hands them back
+	 * on click.
+	 */
+	private static ActionRow navigation(Locale locale, TrackedServer server, Instant since, RoundPage page) {
+		return ActionRow.of(
+			Button.secondary(
+				page.older().map(cursor -> pageId(OLDER_PAGE, server, since, cursor)).orElse(OLDER_PAGE),
+				"◀️ " + Messages.olderPage(locale),
+				page.older().isEmpty()
+			),
+			Button.secondary(
+				page.newer().map(cursor -> pageId(NEWER_PAGE, server, since, cursor)).orElse(NEWER_PAGE),
+				Messages.newerPage(locale) + " ▶️",
+				page.newer().isEmpty()
+			)
+		);
+	}
 
-		StringBuilder builder = new StringBuilder().
+	private static String pageId(String direction, TrackedServer server, Instant since, PageCursor cursor) {
+		return String.join(PAGE_ID_SEPARATOR,
+			COMMAND_NAME,
+			direction,
+			Long.toString(since.toEpochMilli(), Character.MAX_RADIX),
+			Long.toString(cursor.startedAt(), Character.MAX_RADIX),
+			Long.toString(cursor.id(), Character.MAX_RADIX),
+			server.id()
+		);
+	}
+
+	private static long getInputTimeOption(SlashCommandInteraction command, Configuration config) {
+		return Math.abs(command.getOptionByName(TIME_OPTION).flatMap(t -> t.getLongValue()).orElse((long) config.defaultTimespan()));
+	}
+
+	private static ChronoUnit getInputUnitOption(SlashCommandInteraction command, Configuration config) {
+		return command.getOptionByName(UNIT_OPTION).flatMap(SlashCommandInteractionOption::getStringValue)
+			.map(ChronoUnit::valueOf).orElse(config.defaulUnit());
+	}
+
+	/**
+	 * Renders rounds as the lines of a listing, grouped under the day they were
+	 * played in {@code timezone}. Everything locale dependent comes precompiled
+	 * from the catalog, so this is a single pass into a pre-sized builder.
+	 */
+	static String formatToMessage(MessageCatalog catalog, ZoneId timezone, TrackedServer server, List<Round> rounds) {
+		final String timeConnective = " " + catalog.get("time_connective") + " ";
+		final DateTimeFormatter dateFormatter = catalog.dateFormatter();
+		final DateTimeFormatter timeFormatter = catalog.timeFormatter();
+
+		StringBuilder builder = new StringBuilder(128 + rounds.size() * 72).
 			append("🖥️ **").
 			append(server.name().toUpperCase()).
-			append("** %s ".formatted(Messages.timeZoneConnective(locale))).
-			append(configFile.getTimezone().getDisplayName(TextStyle.FULL, locale)).
+			append("** ").
+			append(catalog.get("timezone_connective")).
+			append(' ').
+			append(timezone.getDisplayName(TextStyle.FULL, catalog.locale())).
 			append(".\n");
 
 		if (rounds.isEmpty()) {
-			builder.append("\n🔸 ").append(Messages.noRoundsFound(locale));
+			builder.append("\n🔸 ").append(catalog.get("no_rounds_found"));
 		}
 
 		LocalDate last = null;
 		
-		for (Round Round : rounds) {
-			ZonedDateTime roundStartTime = Round.startTime().withZoneSameInstant(configFile.getTimezone());
-
-			if (!roundStartTime.toLocalDate().equals(last)) {
-				builder.
-					append("\n🗓️ **").
-					append(roundStartTime.format(DateTimeFormatter.ofLocalizedDate(FormatStyle.FULL).withLocale(locale))).
-					append("**\n");
+		for (Round round : rounds) {
+			ZonedDateTime roundStartTime = round.startTime().withZoneSameInstant(timezone);
+			LocalDate roundDate = roundStartTime.toLocalDate();
+
+			if (!roundDate.equals(last)) {
+				builder.append("\n🗓️ **");
+				dateFormatter.formatTo(roundStartTime, builder);
+				builder.append("**\n");
 			}
-			last = roundStartTime.toLocalDate();
-
-			builder.append("%s **%s (%s, %s)** %s %s%n".formatted(
-				(Round.map() == Map.UNKNOWN) ? "🔸" : "🔹",
-				(Round.map() == Map.UNKNOWN) ? "???" : Round.map().getFullName(),
-				Round.mode().getShortName().toUpperCase(),
-				Round.layer().getShortName().toUpperCase(),
-				Messages.timeConnective(locale),
-				roundStartTime.format(DateTimeFormatter.ofLocalizedTime(FormatStyle.SHORT).withLocale(locale))
-			));
+			last = roundDate;
+
+			boolean unknown = round.map() == Map.UNKNOWN;
+
+			builder.
+				append(unknown ? "🔸" : "🔹").
+				append(" **").
+				append(unknown ? "???" : round.map().getFullName()).
+				append(" (").
+				append(round.mode().getShortName().toUpperCase()).
+				append(", ").
+				append(round.layer().getShortName().toUpperCase()).
+				append(")**").
+				append(timeConnective);
+			timeFormatter.formatTo(roundStartTime, builder);
+			builder.append('\n');
 		}
 
 		return builder.toString();
@@ -180,12 +375,7 @@ public final class PlayedCommand implements SlashCommandCreateListener, Autocomp
 		}
 	}
 
-	@Override
-	public void onAutocompleteCreate(AutocompleteCreateEvent event) {
-		event.getAutocompleteInteraction().respondWithChoices(this.targetServerChoices);
-	}
-
-	public static void register(DiscordApi api, Configuration configuration) {
+	static CommandDefinition definition(Configuration configuration) {
 		final Locale english = LocaleConverter.fromDiscord(DiscordLocale.ENGLISH_US);
 		final Locale portuguese = LocaleConverter.fromDiscord(DiscordLocale.PORTUGUESE_BRAZILIAN);
 		final Locale spanish = LocaleConverter.fromDiscord(DiscordLocale.SPANISH);
@@ -228,30 +418,14 @@ public final class PlayedCommand implements SlashCommandCreateListener, Autocomp
 			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.unitOptionDesc(spanish, configuration.defaulUnit())).
 			build();
 
-		SlashCommandOption server = new SlashCommandOptionBuilder().
-			setType(SlashCommandOptionType.STRING).
-			setRequired(false).
-			setName(SERVER_OPTION).
-			setDescription(Messages.serverOptionDesc(english)).
-			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.serverOptionName(portuguese)).
-			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.serverOptionDesc(portuguese)).
-			addNameLocalization(DiscordLocale.SPANISH, Messages.serverOptionName(spanish)).
-			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.serverOptionDesc(spanish)).
-			setAutocompletable(true).
-			build();
-
-		new SlashCommandBuilder().
-			setName(COMMAND_NAME).
-			setDescription(Messages.playedCommandDesc(english)).
+		return new CommandDefinition(COMMAND_NAME, Messages.playedCommandDesc(english)).
 			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.playedCommandName(portuguese)).
 			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.playedCommandDesc(portuguese)).
 			addNameLocalization(DiscordLocale.SPANISH, Messages.playedCommandName(spanish)).
 			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.playedCommandDesc(spanish)).
 			addOption(time).
 			addOption(timeUnit).
-			addOption(server).
-			createGlobal(api).
-			join();
+			addOption(ServerOption.create());
 	}
 
 }
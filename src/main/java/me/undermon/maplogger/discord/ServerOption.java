@@ -0,0 +1,114 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.util.List;
+import java.util.Optional;
+import java.util.Locale;
+
+import org.javacord.api.event.interaction.AutocompleteCreateEvent;
+import org.javacord.api.interaction.DiscordLocale;
+import org.javacord.api.interaction.SlashCommandInteraction;
+import org.javacord.api.interaction.SlashCommandInteractionOption;
+import org.javacord.api.interaction.SlashCommandOption;
+import org.javacord.api.interaction.SlashCommandOptionBuilder;
+import org.javacord.api.interaction.SlashCommandOptionChoice;
+import org.javacord.api.interaction.SlashCommandOptionType;
+import org.javacord.api.listener.interaction.AutocompleteCreateListener;
+
+import me.undermon.maplogger.ServerDirectory;
+import me.undermon.maplogger.configuration.TrackedServer;
+
+/**
+ * The option every command uses to pick a server, completed as it is typed
+ * with the servers on the directory best matching what was typed.
+ */
+public final class ServerOption implements AutocompleteCreateListener {
+	static final String NAME = "server";
+
+	private static final int MAX_CHOICES = 25;
+	private static final int MAX_CHOICE_NAME_LENGTH = 100;
+
+	private final ServerDirectory directory;
+
+	private volatile ServerSearchIndex index = ServerSearchIndex.of(List.of());
+
+	public ServerOption(ServerDirectory directory) {
+		this.directory = directory;
+	}
+
+	@Override
+	public void onAutocompleteCreate(AutocompleteCreateEvent event) {
+		var interaction = event.getAutocompleteInteraction();
+		String typed = interaction.getFocusedOption().getStringValue().orElse("");
+
+		List<SlashCommandOptionChoice> choices = this.currentIndex().
+			search(typed, this.directory::popularity, MAX_CHOICES).
+			stream().
+			map(server -> SlashCommandOptionChoice.create(choiceName(server), server.id())).
+			toList();
+
+		interaction.respondWithChoices(choices);
+	}
+
+	/**
+	 * The index of the servers on the directory, built again only after the
+	 * directory changed.
+	 */
+	private ServerSearchIndex currentIndex() {
+		List<TrackedServer> servers = this.directory.servers();
+		ServerSearchIndex current = this.index;
+
+		if (current.servers() != servers) {
+			current = ServerSearchIndex.of(servers);
+			this.index = current;
+		}
+
+		return current;
+	}
+
+	private static String choiceName(TrackedServer server) {
+		String name = server.name();
+
+		return name.length() > MAX_CHOICE_NAME_LENGTH ? name.substring(0, MAX_CHOICE_NAME_LENGTH) : name;
+	}
+
+	/**
+	 * The server picked on a command, the primary tracked server if none was.
+	 * A server picked counts towards its popularity on autocomplete.
+	 */
+	static TrackedServer selected(SlashCommandInteraction command, ServerDirectory directory) {
+		String idFromChoice = command.
+			getOptionByName(NAME).
+			flatMap(SlashCommandInteractionOption::getStringValue).
+			orElse("");
+
+		Optional<TrackedServer> picked = directory.byId(idFromChoice).or(() -> directory.byName(idFromChoice));
+
+		picked.ifPresent(server -> directory.queried(server.id()));
+
+		return picked.orElse(directory.primary());
+	}
+
+	static SlashCommandOption create() {
+		final Locale english = LocaleConverter.fromDiscord(DiscordLocale.ENGLISH_US);
+		final Locale portuguese = LocaleConverter.fromDiscord(DiscordLocale.PORTUGUESE_BRAZILIAN);
+		final Locale spanish = LocaleConverter.fromDiscord(DiscordLocale.SPANISH);
+
+		return new SlashCommandOptionBuilder().
+			setType(SlashCommandOptionType.STRING).
+			setRequired(false).
+			setName(NAME).
+			setDescription(Messages.serverOptionDesc(english)).
+			addNameLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.serverOptionName(portuguese)).
+			addDescriptionLocalization(DiscordLocale.PORTUGUESE_BRAZILIAN, Messages.serverOptionDesc(portuguese)).
+			addNameLocalization(DiscordLocale.SPANISH, Messages.serverOptionName(spanish)).
+			addDescriptionLocalization(DiscordLocale.SPANISH, Messages.serverOptionDesc(spanish)).
+			setAutocompletable(true).
+			build();
+	}
+}
@@ -0,0 +1,133 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.ToDoubleFunction;
+
+import me.undermon.maplogger.configuration.TrackedServer;
+
+/**
+ * Finds servers by part of their name or the start of their identifier. Every
+ * suffix of every name is kept sorted, so the names containing what was typed
+ * are found with a binary search however many servers there are. Matches at
+ * the start of the name rank first, then those at the start of a word, then
+ * the rest, each ranked by how often the server was asked about.
+ */
+final class ServerSearchIndex {
+	private static final int NAME_PREFIX = 0;
+	private static final int WORD_PREFIX = 1;
+	private static final int ID_PREFIX = 2;
+	private static final int SUBSTRING = 3;
+
+	private final List<TrackedServer> servers;
+	private final Key[] keys;
+
+	/**
+	 * Text starting at some position of a server's name or identifier, with how
+	 * good a match starting there is.
+	 */
+	private record Key(String text, int server, int kind) {}
+
+	private record Match(int server, int kind, double popularity) {}
+
+	private ServerSearchIndex(List<TrackedServer> servers, Key[] keys) {
+		this.servers = servers;
+		this.keys = keys;
+	}
+
+	public static ServerSearchIndex of(List<TrackedServer> servers) {
+		List<Key> keys = new ArrayList<>();
+
+		for (int server = 0; server < servers.size(); server++) {
+			String name = normalized(servers.get(server).name());
+
+			for (int start = 0; start < name.length(); start++) {
+				if (Character.isWhitespace(name.charAt(start))) {
+					continue;
+				}
+
+				boolean wordStart = start > 0 && !Character.isLetterOrDigit(name.charAt(start - 1));
+				int kind = start == 0 ? NAME_PREFIX : (wordStart ? WORD_PREFIX : SUBSTRING);
+
+				keys.add(new Key(name.substring(start), server, kind));
+			}
+
+			keys.add(new Key(normalized(servers.get(server).id()), server, ID_PREFIX));
+		}
+
+		Key[] sorted = keys.toArray(Key[]::new);
+		Arrays.sort(sorted, Comparator.comparing(Key::text));
+
+		return new ServerSearchIndex(servers, sorted);
+	}
+
+	/**
+	 * The servers the index was built from, to tell whether it is out of date.
+	 */
+	public List<TrackedServer> servers() {
+		return this.servers;
+	}
+
+	/**
+	 * At most {@code limit} servers matching what was typed, best first. With
+	 * nothing typed every server matches and only popularity ranks them.
+	 */
+	public List<TrackedServer> search(String typed, ToDoubleFunction<String> popularity, int limit) {
+		String query = normalized(typed);
+		int[] bestKind = new int[this.servers.size()];
+
+		Arrays.fill(bestKind, Integer.MAX_VALUE);
+
+		for (int i = this.firstAtLeast(query); i < this.keys.length && this.keys[i].text().startsWith(query); i++) {
+			Key key = this.keys[i];
+
+			bestKind[key.server()] = Math.min(bestKind[key.server()], key.kind());
+		}
+
+		List<Match> matches = new ArrayList<>();
+
+		for (int server = 0; server < bestKind.length; server++) {
+			if (bestKind[server] != Integer.MAX_VALUE) {
+				matches.add(new Match(server, bestKind[server], popularity.applyAsDouble(this.servers.get(server).id())));
+			}
+		}
+
+		return matches.stream().
+			sorted(Comparator.comparingInt(Match::kind).
+				thenComparing(Comparator.comparingDouble(Match::popularity).reversed()).
+				thenComparingInt(Match::server)).
+			limit(limit).
+			map(match -> this.servers.get(match.server())).
+			toList();
+	}
+
+	private int firstAtLeast(String query) {
+		int low = 0;
+		int high = this.keys.length;
+
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+
+			if (this.keys[middle].text().compareTo(query) < 0) {
+				low = middle + 1;
+			} else {
+				high = middle;
+			}
+		}
+
+		return low;
+	}
+
+	private static String normalized(String text) {
+		return text.strip().toLowerCase(Locale.ROOT);
+	}
+}
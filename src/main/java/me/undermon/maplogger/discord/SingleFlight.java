@@ -0,0 +1,63 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.discord;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import me.undermon.maplogger.metrics.Counter;
+
+/**
+ * Lets identical requests made while one is still running share its result
+ * instead of each doing the same work.
+ */
+final class SingleFlight<K, V> {
+	private final Map<K, CompletableFuture<V>> inFlight = new HashMap<>();
+	private final Counter shared;
+
+	/**
+	 * @param shared counts the requests answered with another one's result.
+	 */
+	SingleFlight(Counter shared) {
+		this.shared = shared;
+	}
+
+	/**
+	 * The result of the request running for {@code key}, or of the one
+	 * {@code start} schedules when there is none. Empty when {@code start}
+	 * could not schedule it.
+	 */
+	public Optional<CompletableFuture<V>> run(K key, Supplier<Optional<CompletableFuture<V>>> start) {
+		synchronized (this.inFlight) {
+			CompletableFuture<V> running = this.inFlight.get(key);
+
+			if (running != null) {
+				this.shared.increment();
+
+				return Optional.of(running);
+			}
+
+			Optional<CompletableFuture<V>> started = start.get();
+
+			started.ifPresent(result -> {
+				this.inFlight.put(key, result);
+				result.whenComplete((value, e) -> this.finished(key, result));
+			});
+
+			return started;
+		}
+	}
+
+	private void finished(K key, CompletableFuture<V> result) {
+		synchronized (this.inFlight) {
+			this.inFlight.remove(key, result);
+		}
+	}
+}
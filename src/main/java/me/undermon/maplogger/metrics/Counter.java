@@ -0,0 +1,43 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A count that only goes up, kept apart for every combination of label values.
+ * Its name ends in {@code _total} on every line, as the text format expects of
+ * counters.
+ */
+public final class Counter extends Metric {
+	private final Map<List<String>, LongAdder> counts = new ConcurrentHashMap<>();
+
+	Counter(String name, String help, List<String> labelNames) {
+		super(name + "_total", help, labelNames);
+	}
+
+	public void increment(String... labelValues) {
+		this.add(1, labelValues);
+	}
+
+	public void add(long amount, String... labelValues) {
+		this.counts.computeIfAbsent(this.labelValues(labelValues), values -> new LongAdder()).add(amount);
+	}
+
+	@Override
+	protected String type() {
+		return "counter";
+	}
+
+	@Override
+	protected void writeSamples(StringBuilder output) {
+		this.counts.forEach((values, count) -> this.writeSample(output, "", values, null, null, count.sum()));
+	}
+}
@@ -0,0 +1,57 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.metrics;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Counts the bytes read through it.
+ */
+public final class CountingInputStream extends FilterInputStream {
+	private long count;
+
+	public CountingInputStream(InputStream in) {
+		super(in);
+	}
+
+	public long count() {
+		return this.count;
+	}
+
+	@Override
+	public int read() throws IOException {
+		int read = super.read();
+
+		if (read != -1) {
+			this.count++;
+		}
+
+		return read;
+	}
+
+	@Override
+	public int read(byte[] buffer, int offset, int length) throws IOException {
+		int read = super.read(buffer, offset, length);
+
+		if (read > 0) {
+			this.count += read;
+		}
+
+		return read;
+	}
+
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = super.skip(n);
+
+		this.count += skipped;
+
+		return skipped;
+	}
+}
@@ -0,0 +1,33 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.metrics;
+
+import java.util.List;
+import java.util.function.DoubleSupplier;
+
+/**
+ * A value read from its owner each time metrics are collected, such as how
+ * many tasks are waiting on a queue.
+ */
+public final class Gauge extends Metric {
+	private final DoubleSupplier value;
+
+	Gauge(String name, String help, DoubleSupplier value) {
+		super(name, help, List.of());
+		this.value = value;
+	}
+
+	@Override
+	protected String type() {
+		return "gauge";
+	}
+
+	@Override
+	protected void writeSamples(StringBuilder output) {
+		this.writeSample(output, "", List.of(), null, null, this.value.getAsDouble());
+	}
+}
@@ -0,0 +1,107 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.metrics;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts observations into buckets by upper bound, along with their sum, kept
+ * apart for every combination of label values.
+ */
+public final class Histogram extends Metric {
+	/**
+	 * Bounds for durations in seconds, from a millisecond to a minute.
+	 */
+	public static final double[] SECONDS = {
+		0.001, 0.0025, 0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60
+	};
+
+	private final double[] bounds;
+	private final Map<List<String>, Series> series = new ConcurrentHashMap<>();
+
+	private static final class Series {
+		private final LongAdder[] buckets;
+		private final DoubleAdder sum = new DoubleAdder();
+		private final LongAdder count = new LongAdder();
+
+		private Series(int size) {
+			this.buckets = new LongAdder[size];
+			Arrays.setAll(this.buckets, i -> new LongAdder());
+		}
+	}
+
+	Histogram(String name, String help, double[] bounds, List<String> labelNames) {
+		super(name, help, labelNames);
+		this.bounds = bounds.clone();
+		Arrays.sort(this.bounds);
+	}
+
+	/**
+	 * Bounds growing by {@code factor}, starting at {@code start}.
+	 */
+	public static double[] exponentialBounds(double start, double factor, int count) {
+		double[] bounds = new double[count];
+
+		for (int i = 0; i < count; i++) {
+			bounds[i] = start * Math.pow(factor, i);
+		}
+
+		return bounds;
+	}
+
+	public void observe(double value, String... labelValues) {
+		Series observed = this.series.computeIfAbsent(this.labelValues(labelValues), values -> new Series(this.bounds.length));
+		int bucket = Arrays.binarySearch(this.bounds, value);
+
+		if (bucket < 0) {
+			bucket = -bucket - 1;
+		}
+
+		if (bucket < this.bounds.length) {
+			observed.buckets[bucket].increment();
+		}
+
+		observed.sum.add(value);
+		observed.count.increment();
+	}
+
+	/**
+	 * Observes the seconds passed since {@code startNanos}, a reading of
+	 * {@link System#nanoTime()}.
+	 */
+	public void observeSince(long startNanos, String... labelValues) {
+		this.observe((System.nanoTime() - startNanos) / 1e9, labelValues);
+	}
+
+	@Override
+	protected String type() {
+		return "histogram";
+	}
+
+	@Override
+	protected void writeSamples(StringBuilder output) {
+		this.series.forEach((values, observed) -> {
+			long cumulative = 0;
+
+			for (int i = 0; i < this.bounds.length; i++) {
+				cumulative += observed.buckets[i].sum();
+				this.writeSample(output, "_bucket", values, "le", format(this.bounds[i]), cumulative);
+			}
+
+			long count = observed.count.sum();
+
+			this.writeSample(output, "_bucket", values, "le", "+Inf", count);
+			this.writeSample(output, "_sum", values, null, null, observed.sum.sum());
+			this.writeSample(output, "_count", values, null, null, count);
+		});
+	}
+}
@@ -0,0 +1,106 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.metrics;
+
+import java.util.List;
+
+/**
+ * Something measured, able to write its current values in the Prometheus text
+ * format.
+ */
+abstract sealed class Metric permits Counter, Gauge, Histogram {
+	private final String name;
+	private final String help;
+	private final List<String> labelNames;
+
+	protected Metric(String name, String help, List<String> labelNames) {
+		this.name = name;
+		this.help = help;
+		this.labelNames = List.copyOf(labelNames);
+	}
+
+	public String name() {
+		return this.name;
+	}
+
+	protected abstract String type();
+
+	protected abstract void writeSamples(StringBuilder output);
+
+	final void writeTo(StringBuilder output) {
+		output.append("# HELP ").append(this.name).append(' ').append(this.help).append('\n');
+		output.append("# TYPE ").append(this.name).append(' ').append(this.type()).append('\n');
+
+		this.writeSamples(output);
+	}
+
+	protected final List<String> labelValues(String... values) {
+		if (values.length != this.labelNames.size()) {
+			throw new IllegalArgumentException(
+				"%s takes labels %s, got %d values.".formatted(this.name, this.labelNames, values.length)
+			);
+		}
+
+		return List.of(values);
+	}
+
+	/**
+	 * Writes one sample line, {@code extraLabel} is added after the metric's own
+	 * labels when not null.
+	 */
+	protected final void writeSample(StringBuilder output, String suffix, List<String> values, String extraLabel,
+			String extraValue, double value) {
+
+		output.append(this.name).append(suffix);
+
+		if (!values.isEmpty() || extraLabel != null) {
+			output.append('{');
+
+			for (int i = 0; i < values.size(); i++) {
+				appendLabel(output, this.labelNames.get(i), values.get(i)).append(',');
+			}
+
+			if (extraLabel != null) {
+				appendLabel(output, extraLabel, extraValue).append(',');
+			}
+
+			output.setLength(output.length() - 1);
+			output.append('}');
+		}
+
+		output.append(' ').append(format(value)).append('\n');
+	}
+
+	private static StringBuilder appendLabel(StringBuilder output, String label, String value) {
+		output.append(label).append("=\"");
+
+		for (int i = 0; i < value.length(); i++) {
+			char character = value.charAt(i);
+
+			switch (character) {
+				case '\\' -> output.append("\\\\");
+				case '"' -> output.append("\\\"");
+				case '\n' -> output.append("\\n");
+				default -> output.append(character);
+			}
+		}
+
+		return output.append('"');
+	}
+
+	static String format(double value) {
+		if (value == Double.POSITIVE_INFINITY) {
+			return "+Inf";
+		}
+
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			return Long.toString((long) value);
+		}
+
+		return Double.toString(value);
+	}
+}
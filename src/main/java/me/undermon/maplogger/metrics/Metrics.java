@@ -0,0 +1,59 @@
+/*
+* This Source Code Form is subject to the terms of the Mozilla Public
+* License, v. 2.0. If a copy of the MPL was not distributed with this
+* file, You can obtain one at https://mozilla.org/MPL/2.0/.
+*/
+
+package me.undermon.maplogger.metrics;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.DoubleSupplier;
+import java.util.function.Function;
+
+/**
+ * Every metric of the bot, by name. Asking twice for the same counter or
+ * histogram returns the same one, registering a gauge again replaces it.
+ */
+public final class Metrics {
+	private static final String PREFIX = "maplogger_";
+	private static final Map<String, Metric> REGISTRY = new ConcurrentSkipListMap<>();
+
+	private Metrics() {
+		// Do nothing
+	}
+
+	public static Counter counter(String name, String help, String... labelNames) {
+		return register(PREFIX + name, Counter.class, fullName -> new Counter(fullName, help, List.of(labelNames)));
+	}
+
+	public static Histogram histogram(String name, String help, double[] bounds, String... labelNames) {
+		return register(PREFIX + name, Histogram.class, fullName -> new Histogram(fullName, help, bounds, List.of(labelNames)));
+	}
+
+	public static void gauge(String name, String help, DoubleSupplier value) {
+		REGISTRY.put(PREFIX + name, new Gauge(PREFIX + name, help, value));
+	}
+
+	/**
+	 * The current value of every metric in the Prometheus text format.
+	 */
+	public static String scrape() {
+		StringBuilder output = new StringBuilder(4096);
+
+		REGISTRY.values().forEach(metric -> metric.writeTo(output));
+
+		return output.toString();
+	}
+
+	private static <T extends Metric> T register(String name, Class<T> type, Function<String, T> create) {
+		Metric metric = REGISTRY.computeIfAbsent(name, create);
+
+		if (!type.isInstance(metric)) {
+			throw new IllegalArgumentException("%s is already registered as a %s.".formatted(name, metric.type()));
+		}
+
+		return type.cast(metric);
+	}
+}